@@ -0,0 +1,319 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks for indexing, single queries and batch querying on a synthetic corpus.
+ * <p/>
+ * The corpus and question set are generated locally from a fixed seed, so runs on
+ * different builds are comparable. Every benchmark runs warm-up iterations followed by
+ * measured iterations, and the results are written as a JSON array laid out like JMH's
+ * JSON output ({@code benchmark}, {@code mode}, {@code threads}, {@code params},
+ * {@code primaryMetric.score/scoreError/scoreUnit/rawData}).
+ * <p/>
+ * Usage: {@code LuceneBench <stopwords> [output.json] [numDocs] [numQuestions]}
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class LuceneBench {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURE_ITERATIONS = 5;
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    private final String stopwords;
+    private final String[][] docs;
+    private final String[] questions;
+    private final JSONArray results = new JSONArray();
+
+    public LuceneBench(String stopwords, int numDocs, int numQuestions) {
+        this.stopwords = stopwords;
+
+        Random random = new Random(42);
+        String[] vocabulary = new String[5000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = word(random);
+        }
+
+        docs = new String[numDocs][];
+        for (int i = 0; i < numDocs; i++) {
+            docs[i] = new String[]{"doc-" + i,
+                    "title", text(random, vocabulary, 3),
+                    "contents", text(random, vocabulary, 60 + random.nextInt(60))};
+        }
+
+        questions = new String[numQuestions];
+        for (int i = 0; i < numQuestions; i++) {
+            String[] words = docs[random.nextInt(numDocs)][4].split(" ");
+            int start = random.nextInt(words.length - 6);
+            questions[i] = "what is " + join(Arrays.copyOfRange(words, start, start + 6)) + "?";
+        }
+    }
+
+    private static String word(Random random) {
+        int length = 3 + random.nextInt(7);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    /** Draws words with a Zipf-like skew so that a few terms have very long postings. */
+    private static String text(Random random, String[] vocabulary, int numWords) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numWords; i++) {
+            if (i > 0)
+                sb.append(' ');
+            double u = random.nextDouble();
+            sb.append(vocabulary[(int) (vocabulary.length * u * u * u)]);
+        }
+        return sb.toString();
+    }
+
+    private static String join(String[] words) {
+        StringBuilder sb = new StringBuilder();
+        for (String w : words) {
+            if (sb.length() > 0)
+                sb.append(' ');
+            sb.append(w);
+        }
+        return sb.toString();
+    }
+
+    /** One measured operation; returns the number of operations it performed. */
+    private interface Op {
+        long run() throws Exception;
+    }
+
+    /**
+     * Runs {@code op} for the warm-up and measured iterations and records its throughput
+     * ({@code thrpt}, ops/s) or its average time per operation ({@code avgt}, ms/op).
+     */
+    @SuppressWarnings("unchecked")
+    private void measure(String benchmark, String mode, int threads, JSONObject params, Op op) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            op.run();
+        }
+
+        JSONArray raw = new JSONArray();
+        double[] values = new double[MEASURE_ITERATIONS];
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            long ops = op.run();
+            long elapsed = System.nanoTime() - start;
+            values[i] = mode.equals("thrpt")
+                    ? ops * 1e9 / elapsed
+                    : elapsed / 1e6 / ops;
+            raw.add(values[i]);
+        }
+
+        double mean = 0;
+        for (double v : values)
+            mean += v;
+        mean /= values.length;
+        double var = 0;
+        for (double v : values)
+            var += (v - mean) * (v - mean);
+        double error = Math.sqrt(var / Math.max(1, values.length - 1));
+
+        JSONObject metric = new JSONObject();
+        metric.put("score", mean);
+        metric.put("scoreError", error);
+        metric.put("scoreUnit", mode.equals("thrpt") ? "ops/s" : "ms/op");
+        JSONArray rawData = new JSONArray();
+        rawData.add(raw);
+        metric.put("rawData", rawData);
+
+        JSONObject result = new JSONObject();
+        result.put("benchmark", benchmark);
+        result.put("mode", mode);
+        result.put("threads", threads);
+        result.put("warmupIterations", WARMUP_ITERATIONS);
+        result.put("measurementIterations", MEASURE_ITERATIONS);
+        result.put("params", params);
+        result.put("primaryMetric", metric);
+        results.add(result);
+
+        System.out.format("%-28s %-6s threads=%d %s\t%.3f +- %.3f %s\n", benchmark, mode, threads,
+                params.toJSONString(), mean, error, metric.get("scoreUnit"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject params(Object... kv) {
+        JSONObject params = new JSONObject();
+        for (int i = 0; i + 1 < kv.length; i += 2) {
+            params.put(kv[i], String.valueOf(kv[i + 1]));
+        }
+        return params;
+    }
+
+    public void indexDoc(final Path dir) throws Exception {
+        measure("indexDoc", "thrpt", 1, params("docs", docs.length), new Op() {
+            @Override
+            public long run() throws Exception {
+                String index = Files.createTempDirectory(dir, "indexDoc").toString();
+                luceneInterface.makeIndexWriter(index, stopwords, "BM25");
+                for (String[] doc : docs) {
+                    luceneInterface.indexDoc(doc[0], Arrays.copyOfRange(doc, 1, doc.length));
+                }
+                luceneInterface.writer.close();
+                return docs.length;
+            }
+        });
+
+        for (final int threads : THREADS) {
+            measure("indexDocs", "thrpt", threads, params("docs", docs.length), new Op() {
+                @Override
+                public long run() throws Exception {
+                    String index = Files.createTempDirectory(dir, "indexDocs").toString();
+                    luceneInterface.makeIndexWriter(index, stopwords, "BM25");
+                    luceneInterface.indexDocs(docs, threads);
+                    luceneInterface.writer.close();
+                    return docs.length;
+                }
+            });
+        }
+    }
+
+    public void query(final String index) throws Exception {
+        for (final String sim : new String[]{"BM25", "TFIDF"}) {
+            final SearcherSession session = luceneInterface.openSearcher(index, stopwords, sim);
+            try {
+                measure("query.warm", "avgt", 1, params("sim", sim), new Op() {
+                    @Override
+                    public long run() throws Exception {
+                        for (String q : questions) {
+                            session.queryHits(q, 5);
+                        }
+                        return questions.length;
+                    }
+                });
+            } finally {
+                session.close();
+            }
+
+            measure("query.cold", "avgt", 1, params("sim", sim), new Op() {
+                private int next = 0;
+
+                @Override
+                public long run() throws Exception {
+                    SearcherSession session = luceneInterface.openSearcher(index, stopwords, sim);
+                    try {
+                        session.queryHits(questions[next++ % questions.length], 5);
+                    } finally {
+                        session.close();
+                    }
+                    return 1;
+                }
+            });
+        }
+    }
+
+    public void batchQuery(String index) throws Exception {
+        final SearcherSession session = luceneInterface.openSearcher(index, stopwords, "BM25");
+        try {
+            for (final int threads : THREADS) {
+                measure("batch_query", "thrpt", threads, params("sim", "BM25", "questions", questions.length), new Op() {
+                    @Override
+                    public long run() throws Exception {
+                        final AtomicInteger next = new AtomicInteger();
+                        ExecutorService pool = Executors.newFixedThreadPool(threads);
+                        try {
+                            List<Future<Void>> futures = new ArrayList<>();
+                            for (int t = 0; t < threads; t++) {
+                                futures.add(pool.submit(new Callable<Void>() {
+                                    @Override
+                                    public Void call() throws Exception {
+                                        int i;
+                                        while ((i = next.getAndIncrement()) < questions.length) {
+                                            session.queryHits(questions[i], 5);
+                                        }
+                                        return null;
+                                    }
+                                }));
+                            }
+                            for (Future<Void> f : futures) {
+                                f.get();
+                            }
+                        } finally {
+                            pool.shutdown();
+                        }
+                        return questions.length;
+                    }
+                });
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    public void write(String filename) throws IOException {
+        try (Writer out = new FileWriter(filename)) {
+            results.writeJSONString(out);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String stopwords = args.length > 0 ? args[0] : "stopwords.txt";
+        String output = args.length > 1 ? args[1] : "bench-results.json";
+        int numDocs = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+        int numQuestions = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+
+        LuceneBench bench = new LuceneBench(stopwords, numDocs, numQuestions);
+        Path dir = Files.createTempDirectory("luceneBench");
+        try {
+            String index = dir.resolve("index").toString();
+            luceneInterface.makeIndexWriter(index, stopwords, "BM25");
+            luceneInterface.indexDocs(bench.docs, Runtime.getRuntime().availableProcessors());
+            luceneInterface.writer.close();
+
+            bench.indexDoc(dir);
+            bench.query(index);
+            bench.batchQuery(index);
+            bench.write(output);
+            System.out.println("results written to " + output);
+        } finally {
+            delete(dir.toFile());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.StopFilter;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of stopword analyzers, one per stopword file.
+ * <p/>
+ * An entry is reused as long as the file's modification time is unchanged, so the
+ * stopword list is read once instead of on every query. The modification time is checked
+ * at most once per {@link #CHECK_INTERVAL_MS} per file, so lookups in between do no file
+ * system I/O and an edited file is picked up within that interval. Analyzers are
+ * thread-safe and shared by the writer and all searchers.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class AnalyzerRegistry {
+    /** How long a file's modification time is trusted before it is checked again. */
+    public static final long CHECK_INTERVAL_MS = 1000;
+
+    private static final ConcurrentMap<String, Entry> analyzers = new ConcurrentHashMap<String, Entry>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private static class Entry {
+        final long mtime;
+        final Analyzer analyzer;
+        /** System.nanoTime() of the last modification time check */
+        volatile long checkedAt;
+
+        Entry(long mtime, Analyzer analyzer, long checkedAt) {
+            this.mtime = mtime;
+            this.analyzer = analyzer;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    private AnalyzerRegistry() {
+    }
+
+    /** Returns the shared analyzer for this stopword file, (re)loading it if the file changed. */
+    public static Analyzer get(String stopPath) {
+        long now = System.nanoTime();
+        Entry entry = analyzers.get(stopPath);
+        if (entry != null && now - entry.checkedAt < CHECK_INTERVAL_MS * 1000000L) {
+            hits.incrementAndGet();
+            return entry.analyzer;
+        }
+
+        long mtime = new File(stopPath).lastModified();
+        if (entry != null && entry.mtime == mtime) {
+            entry.checkedAt = now;
+            hits.incrementAndGet();
+            return entry.analyzer;
+        }
+
+        synchronized (analyzers) {
+            entry = analyzers.get(stopPath);
+            if (entry != null && entry.mtime == mtime) {
+                entry.checkedAt = now;
+                hits.incrementAndGet();
+                return entry.analyzer;
+            }
+            misses.incrementAndGet();
+            // the previous analyzer may still be in use by another thread, so it is left to GC
+            Analyzer analyzer = new EnglishAnalyzer(
+                    StopFilter.makeStopSet(luceneInterface.mygetStopwords(stopPath)));
+            analyzers.put(stopPath, new Entry(mtime, analyzer, now));
+            return analyzer;
+        }
+    }
+
+    /** Runs {@code text} through {@code analyzer} and returns the resulting terms in order. */
+    public static List<String> analyze(Analyzer analyzer, String field, String text) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream ts = analyzer.tokenStream(field, text)) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                tokens.add(term.toString());
+            }
+            ts.end();
+        }
+        return tokens;
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static void clear() {
+        analyzers.clear();
+    }
+
+    public static void resetStats() {
+        hits.set(0);
+        misses.set(0);
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Top hits of a batch of questions in flat primitive arrays, for callers on the other side of
+ * a language bridge.
+ * <p/>
+ * Hits of question {@code q} are {@code starts[q] .. starts[q+1]-1}; {@code counts[q]} is their
+ * number. Hit {@code h} has score {@code scores[h]}, and its docid is the UTF-8 bytes
+ * {@code docids[offsets[h] .. offsets[h+1]-1]}. In Python, for example:
+ * <pre>
+ *   raw = bytes(b % 256 for b in hits.docids)
+ *   ids = [raw[o[h]:o[h + 1]].decode('utf-8') for h in range(len(hits.scores))]
+ * </pre>
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class BatchHits {
+    public final byte[] docids;
+    public final int[] offsets;
+    public final float[] scores;
+    public final int[] counts;
+    public final int[] starts;
+    public final int[] totalHits;
+
+    BatchHits(byte[] docids, int[] offsets, float[] scores, int[] counts, int[] starts, int[] totalHits) {
+        this.docids = docids;
+        this.offsets = offsets;
+        this.scores = scores;
+        this.counts = counts;
+        this.starts = starts;
+        this.totalHits = totalHits;
+    }
+
+    /** Packs the hits of every question, in order. */
+    public static BatchHits pack(TopHits[] hits) {
+        int[] counts = new int[hits.length];
+        int[] starts = new int[hits.length + 1];
+        int[] totalHits = new int[hits.length];
+        int numHits = 0;
+        for (int q = 0; q < hits.length; q++) {
+            counts[q] = hits[q].size();
+            totalHits[q] = hits[q].totalHits;
+            starts[q] = numHits;
+            numHits += counts[q];
+        }
+        starts[hits.length] = numHits;
+
+        byte[][] ids = new byte[numHits][];
+        int[] offsets = new int[numHits + 1];
+        float[] scores = new float[numHits];
+        int h = 0;
+        int length = 0;
+        for (TopHits hit : hits) {
+            for (int i = 0; i < hit.size(); i++, h++) {
+                ids[h] = hit.docids[i].getBytes(StandardCharsets.UTF_8);
+                scores[h] = hit.scores[i];
+                offsets[h] = length;
+                length += ids[h].length;
+            }
+        }
+        offsets[numHits] = length;
+
+        byte[] docids = new byte[length];
+        for (h = 0; h < numHits; h++) {
+            System.arraycopy(ids[h], 0, docids, offsets[h], ids[h].length);
+        }
+        return new BatchHits(docids, offsets, scores, counts, starts, totalHits);
+    }
+
+    public int numQuestions() {
+        return counts.length;
+    }
+
+    /** Returns the number of hits over all questions. */
+    public int size() {
+        return scores.length;
+    }
+
+    /** Decodes the docid of hit {@code h}. */
+    public String docid(int h) {
+        return new String(docids, offsets[h], offsets[h + 1] - offsets[h], StandardCharsets.UTF_8);
+    }
+
+    /** Decodes the docid of the {@code rank}-th (0-based) hit of question {@code q}. */
+    public String docid(int q, int rank) {
+        return docid(starts[q] + rank);
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Top paragraphs of a {@link BlockIndex} together with their stored sentences.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class BlockHits extends TopHits {
+    /** sentences of each hit, in paragraph order */
+    public final String[][] sentences;
+
+    public BlockHits(String[] docids, float[] scores, int totalHits, String[][] sentences) {
+        super(docids, scores, totalHits);
+        this.sentences = sentences;
+    }
+
+    public List<String> sentences(int rank) {
+        return Arrays.asList(sentences[rank]);
+    }
+
+    /**
+     * @param searcher a {@link BlockIndex.Searcher}, which sessions create over block indexes
+     * @throws IllegalStateException if {@code searcher} is not over a {@link BlockIndex}
+     */
+    public static BlockHits from(IndexSearcher searcher, TopDocs results, int numResult) throws IOException {
+        // decided once per reader by the searcher factory, instead of merging field infos per query
+        if (!(searcher instanceof BlockIndex.Searcher))
+            throw new IllegalStateException("not a block index, no sentences to return: " + searcher.getIndexReader());
+        ScoreDoc[] hits = results.scoreDocs;
+        int end = Math.min(hits.length, numResult);
+        String[] docids = new String[end];
+        float[] scores = new float[end];
+        String[][] sentences = new String[end][];
+
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        for (int i = 0; i < end; i++) {
+            docids[i] = docid(searcher, leaves, hits[i].doc);
+            scores[i] = hits[i].score;
+            sentences[i] = BlockIndex.sentences(searcher, leaves, hits[i].doc);
+        }
+        return new BlockHits(docids, scores, results.totalHits, sentences);
+    }
+}
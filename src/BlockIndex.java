@@ -0,0 +1,128 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Layout of an index whose paragraphs carry their sentences as block-join children.
+ * <p/>
+ * A paragraph is written with {@code addDocuments} as one block: one child document per
+ * sentence, with the sentence stored and indexed in {@link #SENTENCE}, followed by the
+ * paragraph itself as laid out by {@link luceneInterface#makeDocument} plus a {@link #PARENT}
+ * doc-values flag. Lucene keeps a block contiguous through merges, so the sentences of a
+ * parent hit are the documents between it and the previous document with a docid, be it a
+ * parent or a paragraph added with {@link luceneInterface#indexDoc}. Every document of a block
+ * has the paragraph's docid in {@link #BLOCK}, so a whole block is replaced or deleted at once.
+ * <p/>
+ * Children count in {@code maxDoc}, which BM25 and TF-IDF use for IDF and average length;
+ * {@link Searcher} counts paragraphs only, so scores equal those of an index without children.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class BlockIndex {
+    /** doc-values flag, 1 on paragraphs */
+    public static final String PARENT = "parent";
+    /** sentence text of a child */
+    public static final String SENTENCE = "sentence";
+    /** docid of the paragraph, on every document of its block */
+    public static final String BLOCK = "block";
+
+    private static final Set<String> SENTENCE_FIELD = Collections.singleton(SENTENCE);
+
+    private BlockIndex() {
+    }
+
+    /** Builds the block of paragraph {@code docid}: the sentences, then the paragraph with fields {@code args}. */
+    public static List<Document> makeBlock(String docid, List<String> sentences, String... args) {
+        List<Document> block = new ArrayList<>(sentences.size() + 1);
+        for (String sentence : sentences) {
+            Document child = new Document();
+            child.add(new StringField(BLOCK, docid, Field.Store.NO));
+            child.add(new TextField(SENTENCE, sentence, Field.Store.YES));
+            block.add(child);
+        }
+        Document parent = luceneInterface.makeDocument(docid, args);
+        parent.add(new StringField(BLOCK, docid, Field.Store.NO));
+        parent.add(new NumericDocValuesField(PARENT, 1));
+        block.add(parent);
+        return block;
+    }
+
+    public static Term blockTerm(String docid) {
+        return new Term(BLOCK, docid);
+    }
+
+    /** Returns true if {@code reader} has documents written by {@link #makeBlock}. */
+    public static boolean isBlockIndex(IndexReader reader) {
+        return MultiFields.getMergedFieldInfos(reader).fieldInfo(PARENT) != null;
+    }
+
+    /** Returns the stored sentences of the paragraph {@code doc} (a top-level doc id), in order. */
+    public static String[] sentences(IndexSearcher searcher, List<LeafReaderContext> leaves, int doc) throws IOException {
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+        // children have no docid; every paragraph has one, whether written as a block or not
+        SortedDocValues docids = leaf.reader().getSortedDocValues("docid");
+        if (docids == null)
+            return new String[0];
+
+        int first = doc - leaf.docBase;
+        while (first > 0 && docids.getOrd(first - 1) < 0) {
+            first--;
+        }
+        String[] sentences = new String[doc - leaf.docBase - first];
+        for (int i = 0; i < sentences.length; i++) {
+            sentences[i] = searcher.doc(leaf.docBase + first + i, SENTENCE_FIELD).get(SENTENCE);
+        }
+        return sentences;
+    }
+
+    /** Searcher whose collection statistics count paragraphs, or sentences for {@link #SENTENCE}, instead of all documents. */
+    public static class Searcher extends IndexSearcher {
+        public Searcher(IndexReader reader, ExecutorService executor) {
+            super(reader, executor);
+        }
+
+        @Override
+        public CollectionStatistics collectionStatistics(String field) throws IOException {
+            CollectionStatistics stats = super.collectionStatistics(field);
+            // only paragraphs have a docid, so its docCount is the number of paragraphs
+            long paragraphs = super.collectionStatistics("docid").docCount();
+            if (paragraphs < 0)
+                return stats;
+            long maxDoc = field.equals(SENTENCE) ? stats.maxDoc() - paragraphs : paragraphs;
+            return new CollectionStatistics(field, Math.max(maxDoc, 1), stats.docCount(),
+                    stats.sumTotalTermFreq(), stats.sumDocFreq());
+        }
+    }
+}
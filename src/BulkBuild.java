@@ -0,0 +1,193 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.json.simple.JSONObject;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One-shot build of an index that will only be read afterwards.
+ * <p/>
+ * The index is created from scratch with a large RAM buffer, a tiered merge policy that
+ * merges wide and rarely while documents stream in, and no compound files. {@link #finish}
+ * commits, optionally force-merges down to a target segment count so that every variant
+ * has the same read-side layout, and returns a report of the result and the time spent
+ * in each phase.
+ * <pre>
+ *   BulkBuild build = new BulkBuild(index, stopwords, "BM25", BulkBuild.defaultRamBufferMB());
+ *   build.index(docs, 4);
+ *   build.finish(1, index + ".build.json");
+ * </pre>
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class BulkBuild {
+    /** Largest default indexing buffer; Lucene caps each indexing thread at 1945 MB. */
+    public static final double MAX_RAM_BUFFER_MB = 512;
+    private static final double MIN_RAM_BUFFER_MB = 16;
+
+    /**
+     * Returns the default indexing buffer: a quarter of the maximum heap, so that the analyzers,
+     * merges and the caller keep the rest, between 16 and {@link #MAX_RAM_BUFFER_MB} MB.
+     */
+    public static double defaultRamBufferMB() {
+        double heapMB = Runtime.getRuntime().maxMemory() / (1024.0 * 1024.0);
+        return Math.max(MIN_RAM_BUFFER_MB, Math.min(MAX_RAM_BUFFER_MB, heapMB / 4));
+    }
+
+    private final String indexPath;
+    private final Directory dir;
+    private final IndexWriter writer;
+    private final BulkIndexer.FlushCounter flushCounter = new BulkIndexer.FlushCounter();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private final long startTime;
+    private final long openedTime;
+
+    /** Creates, or overwrites, the index at {@code indexPath}. */
+    public BulkBuild(String indexPath, String stopPath, String sim, double ramBufferMB) throws IOException {
+        this.indexPath = indexPath;
+        this.startTime = System.currentTimeMillis();
+        this.dir = FSDirectory.open(Paths.get(indexPath));
+
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+        mergePolicy.setSegmentsPerTier(20);
+        mergePolicy.setMaxMergeAtOnce(20);
+        mergePolicy.setMaxMergedSegmentMB(10 * 1024);
+        mergePolicy.setNoCFSRatio(0.0);
+
+        IndexWriterConfig iwc = new IndexWriterConfig(AnalyzerRegistry.get(stopPath));
+        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        iwc.setSimilarity(SearcherSession.makeSimilarity(sim));
+        iwc.setRAMBufferSizeMB(ramBufferMB);
+        iwc.setMaxBufferedDocs(IndexWriterConfig.DISABLE_AUTO_FLUSH);
+        iwc.setMergePolicy(mergePolicy);
+        iwc.setUseCompoundFile(false);
+        iwc.setCommitOnClose(false);
+        iwc.setInfoStream(flushCounter);
+
+        try {
+            this.writer = new IndexWriter(dir, iwc);
+        } catch (IOException e) {
+            dir.close();
+            throw e;
+        }
+        phase("open", startTime);
+        this.openedTime = System.currentTimeMillis();
+    }
+
+    private void phase(String name, long start) {
+        Long spent = phases.get(name);
+        phases.put(name, (spent == null ? 0 : spent) + System.currentTimeMillis() - start);
+    }
+
+    public IndexWriter getWriter() {
+        return writer;
+    }
+
+    public BulkIndexer.FlushCounter getFlushCounter() {
+        return flushCounter;
+    }
+
+    /**
+     * Indexes {@code docs} ({@code {docid, field, text, ...}}) from {@code numThreads} threads; may be
+     * called repeatedly, and documents may also be added to {@link #getWriter()} directly.
+     */
+    public BulkIndexer.Report index(Iterator<String[]> docs, int numThreads) throws IOException {
+        return new BulkIndexer(writer, flushCounter, numThreads).index(docs);
+    }
+
+    public BulkIndexer.Report index(String[][] docs, int numThreads) throws IOException {
+        return index(Arrays.asList(docs).iterator(), numThreads);
+    }
+
+    /** Like {@link #index(Iterator, int)}, writing every document as a {@link BlockIndex} block with its {@code sentences}. */
+    public BulkIndexer.Report indexBlocks(Iterator<String[]> docs, SentenceStore sentences, int numThreads) throws IOException {
+        return new BulkIndexer(writer, flushCounter, numThreads).indexBlocks(docs, sentences);
+    }
+
+    /**
+     * Commits and closes the index. Everything between the constructor and this call is
+     * reported as the "index" phase.
+     *
+     * @param maxSegments force-merge down to this many segments first, or 0 to keep the merged layout
+     * @param reportPath  where the JSON report is written, or null
+     * @return docs, live docs of the last commit, segments, bytes, flushes and milliseconds per phase
+     */
+    @SuppressWarnings("unchecked")
+    public JSONObject finish(int maxSegments, String reportPath) throws IOException {
+        try {
+            phase("index", openedTime);
+            int numDocs = writer.numDocs();
+            long start = System.currentTimeMillis();
+            writer.commit();
+            phase("commit", start);
+
+            if (maxSegments > 0) {
+                start = System.currentTimeMillis();
+                writer.forceMerge(maxSegments);
+                writer.commit();
+                phase("forceMerge", start);
+            }
+
+            start = System.currentTimeMillis();
+            writer.close();
+            phase("close", start);
+
+            SegmentInfos infos = SegmentInfos.readLatestCommit(dir);
+            long liveDocs = 0;
+            for (SegmentCommitInfo info : infos) {
+                liveDocs += info.info.maxDoc() - info.getDelCount();
+            }
+
+            JSONObject report = new JSONObject();
+            report.put("index", indexPath);
+            report.put("docs", numDocs);
+            report.put("live_docs", liveDocs);
+            report.put("segments", infos.size());
+            report.put("bytes", DirectoryStrategy.sizeOf(dir));
+            report.put("flushes", flushCounter.getFlushCount());
+            report.put("max_segments", maxSegments);
+            JSONObject millis = new JSONObject();
+            millis.putAll(phases);
+            report.put("phase_ms", millis);
+            report.put("total_ms", System.currentTimeMillis() - startTime);
+
+            if (reportPath != null) {
+                try (Writer out = new FileWriter(reportPath)) {
+                    report.writeJSONString(out);
+                }
+            }
+            return report;
+        } finally {
+            if (writer.isOpen())
+                writer.rollback();
+            dir.close();
+        }
+    }
+}
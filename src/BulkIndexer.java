@@ -0,0 +1,236 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.InfoStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-threaded bulk ingestion into a shared {@link IndexWriter}.
+ * <p/>
+ * Every document is a {@code String[]} laid out like the arguments of
+ * {@link luceneInterface#indexDoc}: {@code {docid, field, text, field, text, ...}}.
+ * Each indexing thread reuses one {@link Document} and its {@link Field} instances,
+ * and nothing is printed per document. {@link #indexBlocks} writes every document as a
+ * {@link BlockIndex} block instead, with its sentences as children.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class BulkIndexer {
+    /** Number of documents a thread takes from the shared source at once. */
+    private static final int BATCH_SIZE = 256;
+
+    private final IndexWriter[] writers;
+    private final FlushCounter flushCounter;
+    private final int numThreads;
+
+    /**
+     * @param flushCounter the info stream installed on the writer's config, or null if flushes are not counted
+     */
+    public BulkIndexer(IndexWriter writer, FlushCounter flushCounter, int numThreads) {
+        this(new IndexWriter[]{writer}, flushCounter, numThreads);
+    }
+
+    /**
+     * Routes every document to {@code shards[ShardedIndex.shard(docid, shards.length)]}.
+     *
+     * @param flushCounter the info stream installed on every shard's config, or null
+     */
+    public BulkIndexer(IndexWriter[] shards, FlushCounter flushCounter, int numThreads) {
+        this.writers = shards;
+        this.flushCounter = flushCounter;
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public Report index(String[][] docs) throws IOException {
+        return index(Arrays.asList(docs).iterator());
+    }
+
+    /** Indexes every document of {@code docs}; the iterator is only accessed by one thread at a time. */
+    public Report index(Iterator<String[]> docs) throws IOException {
+        return index(docs, null);
+    }
+
+    /**
+     * Like {@link #index(Iterator)}, but adds every document as a block whose children are its
+     * sentences in {@code sentences}; a docid the store does not know gets a block without children.
+     */
+    public Report indexBlocks(Iterator<String[]> docs, SentenceStore sentences) throws IOException {
+        return index(docs, sentences);
+    }
+
+    private Report index(final Iterator<String[]> docs, final SentenceStore sentences) throws IOException {
+        final AtomicInteger count = new AtomicInteger();
+        long flushesBefore = flushCounter == null ? 0 : flushCounter.getFlushCount();
+        long startTime = System.currentTimeMillis();
+
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < numThreads; t++) {
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        DocBuilder builder = new DocBuilder();
+                        List<String[]> batch = new ArrayList<>(BATCH_SIZE);
+                        while (true) {
+                            batch.clear();
+                            synchronized (docs) {
+                                while (batch.size() < BATCH_SIZE && docs.hasNext()) {
+                                    batch.add(docs.next());
+                                }
+                            }
+                            if (batch.isEmpty())
+                                return null;
+
+                            for (String[] doc : batch) {
+                                IndexWriter writer = writers.length == 1
+                                        ? writers[0] : writers[ShardedIndex.shard(doc[0], writers.length)];
+                                if (sentences == null)
+                                    writer.addDocument(builder.build(doc));
+                                else
+                                    writer.addDocuments(block(doc, sentences));
+                            }
+                            count.addAndGet(batch.size());
+                        }
+                    }
+                }));
+            }
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        long flushes = flushCounter == null ? -1 : flushCounter.getFlushCount() - flushesBefore;
+        return new Report(count.get(), System.currentTimeMillis() - startTime, flushes);
+    }
+
+    private static List<Document> block(String[] doc, SentenceStore sentences) {
+        List<String> children = sentences.get(doc[0]);
+        return BlockIndex.makeBlock(doc[0], children == null ? Collections.<String>emptyList() : children,
+                Arrays.copyOfRange(doc, 1, doc.length));
+    }
+
+    /** Per-thread document whose fields are reused between documents. */
+    private static class DocBuilder {
+        private final Document doc = new Document();
+        private final Field docidField = new StringField("docid", "", Field.Store.YES);
+        private final Field docidValuesField = new SortedDocValuesField("docid", new BytesRef());
+        /** one field per position in args, so a repeated field name gets one instance per value */
+        private final List<Field> textFields = new ArrayList<>();
+
+        Document build(String[] args) {
+            List<?> fields = doc.getFields();
+            fields.clear();
+
+            docidField.setStringValue(args[0]);
+            doc.add(docidField);
+            docidValuesField.setBytesValue(new BytesRef(args[0]));
+            doc.add(docidValuesField);
+
+            for (int i = 1; i + 1 < args.length; i += 2) {
+                int position = i / 2;
+                Field field = position < textFields.size() ? textFields.get(position) : null;
+                if (field == null || !field.name().equals(args[i])) {
+                    field = new TextField(args[i], "", Field.Store.NO);
+                    if (position < textFields.size())
+                        textFields.set(position, field);
+                    else
+                        textFields.add(field);
+                }
+                field.setStringValue(args[i + 1]);
+                doc.add(field);
+            }
+            return doc;
+        }
+    }
+
+    /**
+     * Counts segment flushes by listening to the writer's info stream; install it with
+     * {@link org.apache.lucene.index.IndexWriterConfig#setInfoStream(InfoStream)}.
+     */
+    public static class FlushCounter extends InfoStream {
+        private final AtomicLong flushes = new AtomicLong();
+
+        @Override
+        public void message(String component, String message) {
+            if (message.startsWith("flush postings as segment"))
+                flushes.incrementAndGet();
+        }
+
+        @Override
+        public boolean isEnabled(String component) {
+            return "DWPT".equals(component);
+        }
+
+        public long getFlushCount() {
+            return flushes.get();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static class Report {
+        public final int numDocs;
+        public final long millis;
+        public final long flushes;
+
+        Report(int numDocs, long millis, long flushes) {
+            this.numDocs = numDocs;
+            this.millis = millis;
+            this.flushes = flushes;
+        }
+
+        public double docsPerSec() {
+            return numDocs * 1000.0 / Math.max(millis, 1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("docs=%d\ttime=%f\tdocs/sec=%f\tflushes=%d",
+                    numDocs, millis / 1000.0, docsPerSec(), flushes);
+        }
+    }
+}
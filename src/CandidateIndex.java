@@ -0,0 +1,126 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Answer-candidate lookup over a {@code *_raw_list.json} file keyed by (question, paragraph_id).
+ * <p/>
+ * The comma separated, 1-based "candidates" string of every entry is parsed once into a
+ * {@link BitSet} of 0-based sentence positions, so labeling a sentence is a hash lookup
+ * and a bit test instead of a scan over the whole raw list. If the raw list repeats a
+ * (question, paragraph_id) pair, the first entry wins, as it did for the scan.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class CandidateIndex {
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    public static class Entry {
+        public final BitSet candidates;
+        public final String[] sentences;
+
+        Entry(BitSet candidates, String[] sentences) {
+            this.candidates = candidates;
+            this.sentences = sentences;
+        }
+    }
+
+    public CandidateIndex(Iterator<?> rawList) {
+        while (rawList.hasNext()) {
+            JSONObject rl = (JSONObject) rawList.next();
+            String question = (String) rl.get("question");
+            String pid = (String) rl.get("paragraph_id");
+            String key = key(question, pid);
+            if (entries.containsKey(key))
+                continue;
+
+            BitSet candidates = new BitSet();
+            Object cands = rl.get("candidates");
+            if (cands != null) {
+                for (String cand : cands.toString().split(",")) {
+                    cand = cand.replace(" ", "");
+                    if (cand.isEmpty())
+                        continue;
+                    int index = Integer.parseInt(cand) - 1;
+                    if (index >= 0)
+                        candidates.set(index);
+                }
+            }
+
+            JSONArray sents = (JSONArray) rl.get("sentences");
+            String[] sentences = new String[sents == null ? 0 : sents.size()];
+            for (int i = 0; i < sentences.length; i++) {
+                sentences[i] = String.valueOf(sents.get(i));
+            }
+
+            entries.put(key, new Entry(candidates, sentences));
+        }
+    }
+
+    public static CandidateIndex load(String rawListFilename) throws IOException {
+        try (JsonStream rawList = JsonStream.open(rawListFilename)) {
+            return new CandidateIndex(rawList);
+        }
+    }
+
+    private static String key(String question, String pid) {
+        return question + '\u0000' + pid;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /** Returns the entry of (question, paragraph id), or null if the raw list has none. */
+    public Entry get(String question, String pid) {
+        return entries.get(key(question, pid));
+    }
+
+    /** Returns 1 if sentence {@code index} of paragraph {@code pid} is an answer candidate for {@code question}. */
+    public int label(String question, String pid, int index) {
+        Entry entry = get(question, pid);
+        return entry != null && entry.candidates.get(index) ? 1 : 0;
+    }
+
+    /**
+     * Writes "question \t sentence \t 0/1" for every sentence of (question, pid).
+     *
+     * @return false if the raw list has no such entry
+     */
+    public boolean write(String question, String pid, Writer out) throws IOException {
+        Entry entry = get(question, pid);
+        if (entry == null)
+            return false;
+
+        for (int i = 0; i < entry.sentences.length; i++) {
+            out.write(question);
+            out.write('\t');
+            out.write(entry.sentences[i]);
+            out.write('\t');
+            out.write(entry.candidates.get(i) ? '1' : '0');
+            out.write('\n');
+        }
+        return true;
+    }
+}
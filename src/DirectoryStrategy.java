@@ -0,0 +1,83 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * How an index directory is opened for searching or writing.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public enum DirectoryStrategy {
+    /** {@link FSDirectory#open}: Lucene's pick for the platform, mmap on 64-bit JVMs. */
+    FS,
+    /** {@link MMapDirectory}: files are mapped and paged in by the OS on demand. */
+    MMAP,
+    /** {@link NIOFSDirectory}: positional reads through the file channel. */
+    NIO,
+    /**
+     * {@link RAMDirectory} copy of the on-disk index, read in full when opened. Later commits
+     * on disk are not seen, and a writer's commits stay in memory.
+     */
+    RAM;
+
+    /** Returns the strategy named {@code name}, case-insensitive; null or empty is {@link #FS}. */
+    public static DirectoryStrategy parse(String name) {
+        if (name == null || name.isEmpty())
+            return FS;
+        return valueOf(name.toUpperCase());
+    }
+
+    public Directory open(Path path) throws IOException {
+        switch (this) {
+            case MMAP:
+                return new MMapDirectory(path);
+            case NIO:
+                return new NIOFSDirectory(path);
+            case RAM:
+                if (!Files.isDirectory(path))
+                    return new RAMDirectory();
+                try (Directory source = FSDirectory.open(path)) {
+                    return new RAMDirectory((FSDirectory) source, IOContext.READONCE);
+                }
+            default:
+                return FSDirectory.open(path);
+        }
+    }
+
+    /**
+     * Returns the bytes held by {@code dir}: heap bytes for a {@link RAMDirectory}, otherwise
+     * the total length of its files.
+     */
+    public static long sizeOf(Directory dir) throws IOException {
+        if (dir instanceof RAMDirectory)
+            return ((RAMDirectory) dir).ramBytesUsed();
+
+        long bytes = 0;
+        for (String file : dir.listAll()) {
+            bytes += dir.fileLength(file);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Ranking metrics for several cutoffs computed from one top-K list per question.
+ * <p/>
+ * For each question the ranked docids are scanned once against a hash set of gold ids;
+ * hit@k for every cutoff, the reciprocal rank of the first gold id and recall at the
+ * largest cutoff all follow from that scan. If a row writer is given, one TSV row per
+ * question is streamed to it as it is added.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class Evaluation {
+    private final int[] cutoffs;
+    private final Writer rows;
+    private final long[] hits;
+    private double reciprocalRanks = 0;
+    private double recalls = 0;
+    private int numQuestions = 0;
+
+    /**
+     * @param cutoffs the k values of hit@k, positive and strictly ascending; the search must
+     *                return at least {@link #maxCutoff()} hits
+     * @param rows    where per-question TSV rows are written, or null
+     * @throws IllegalArgumentException if {@code cutoffs} is empty, not positive or not ascending
+     */
+    public Evaluation(int[] cutoffs, Writer rows) throws IOException {
+        if (cutoffs.length == 0)
+            throw new IllegalArgumentException("no cutoffs");
+        for (int c = 0; c < cutoffs.length; c++) {
+            if (cutoffs[c] <= 0)
+                throw new IllegalArgumentException("cutoffs must be positive: " + Arrays.toString(cutoffs));
+            if (c > 0 && cutoffs[c] <= cutoffs[c - 1])
+                throw new IllegalArgumentException("cutoffs must be strictly ascending: " + Arrays.toString(cutoffs));
+        }
+        this.cutoffs = cutoffs.clone();
+        this.rows = rows;
+        this.hits = new long[cutoffs.length];
+
+        if (rows != null) {
+            StringBuilder sb = new StringBuilder("qid\tquestion\tgold\trank\trr");
+            for (int k : this.cutoffs) {
+                sb.append("\thit@").append(k);
+            }
+            sb.append("\trecall@").append(maxCutoff()).append('\n');
+            rows.write(sb.toString());
+        }
+    }
+
+    public int maxCutoff() {
+        return cutoffs[cutoffs.length - 1];
+    }
+
+    public static Set<String> gold(Object paragraphId) {
+        Set<String> gold = new HashSet<>();
+        if (paragraphId instanceof Collection) {
+            for (Object id : (Collection<?>) paragraphId) {
+                gold.add(String.valueOf(id));
+            }
+        } else if (paragraphId != null) {
+            gold.add(String.valueOf(paragraphId));
+        }
+        return gold;
+    }
+
+    /**
+     * Adds one question.
+     *
+     * @param ranked the docids returned for the question, best first
+     * @return the 1-based rank of the first gold docid, or 0 if none was retrieved
+     */
+    public synchronized int add(String question, Set<String> gold, String[] ranked) throws IOException {
+        int end = Math.min(ranked.length, maxCutoff());
+        int firstRank = 0;
+        int found = 0;
+        for (int i = 0; i < end; i++) {
+            if (gold.contains(ranked[i])) {
+                found++;
+                if (firstRank == 0)
+                    firstRank = i + 1;
+            }
+        }
+
+        double rr = firstRank == 0 ? 0.0 : 1.0 / firstRank;
+        double recall = gold.isEmpty() ? 0.0 : found * 1.0 / gold.size();
+        for (int c = 0; c < cutoffs.length; c++) {
+            if (firstRank != 0 && firstRank <= cutoffs[c])
+                hits[c]++;
+        }
+        reciprocalRanks += rr;
+        recalls += recall;
+        numQuestions++;
+
+        if (rows != null) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(numQuestions - 1).append('\t').append(question.replace('\t', ' ').replace('\n', ' '))
+                    .append('\t').append(join(gold)).append('\t').append(firstRank).append('\t').append(rr);
+            for (int k : cutoffs) {
+                sb.append('\t').append(firstRank != 0 && firstRank <= k ? 1 : 0);
+            }
+            sb.append('\t').append(recall).append('\n');
+            rows.write(sb.toString());
+        }
+        return firstRank;
+    }
+
+    private static String join(Set<String> gold) {
+        StringBuilder sb = new StringBuilder();
+        for (String id : gold) {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(id);
+        }
+        return sb.toString();
+    }
+
+    public synchronized int getNumQuestions() {
+        return numQuestions;
+    }
+
+    public synchronized long getHits(int k) {
+        int c = Arrays.binarySearch(cutoffs, k);
+        if (c < 0)
+            throw new IllegalArgumentException("not a configured cutoff: " + k);
+        return hits[c];
+    }
+
+    public synchronized double hitRate(int k) {
+        return numQuestions == 0 ? 0.0 : getHits(k) * 1.0 / numQuestions;
+    }
+
+    public synchronized double mrr() {
+        return numQuestions == 0 ? 0.0 : reciprocalRanks / numQuestions;
+    }
+
+    public synchronized double recall() {
+        return numQuestions == 0 ? 0.0 : recalls / numQuestions;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized JSONObject summary() {
+        JSONObject summary = new JSONObject();
+        summary.put("questions", numQuestions);
+        JSONArray ks = new JSONArray();
+        for (int k : cutoffs) {
+            ks.add(k);
+            summary.put("hit@" + k, hitRate(k));
+            summary.put("hits@" + k, getHits(k));
+        }
+        summary.put("cutoffs", ks);
+        summary.put("mrr@" + maxCutoff(), mrr());
+        summary.put("recall@" + maxCutoff(), recall());
+        return summary;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int k : cutoffs) {
+            sb.append(String.format("hit@%d=%f\t", k, hitRate(k) * 100));
+        }
+        sb.append(String.format("mrr=%f\trecall@%d=%f\tquestions=%d", mrr(), maxCutoff(), recall(), numQuestions));
+        return sb.toString();
+    }
+}
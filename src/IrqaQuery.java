@@ -29,10 +29,20 @@ import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.search.similarities.TFIDFSimilarity;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -55,8 +65,7 @@ public class IrqaQuery {
         System.out.println("[makeIndexWriter] started");
         System.out.println("[makeIndexWriter]"+stopPath);
         Directory dir = FSDirectory.open(Paths.get(indexPath));
-        Analyzer analyzer = new EnglishAnalyzer(
-                StopFilter.makeStopSet(mygetStopwords(stopPath)));
+        Analyzer analyzer = AnalyzerRegistry.get(stopPath);
         IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
 
 
@@ -78,6 +87,7 @@ public class IrqaQuery {
 
         Field pathField = new StringField("docid", docid, Field.Store.YES);
         doc.add(pathField);
+        doc.add(new SortedDocValuesField("docid", new BytesRef(docid)));
 
         for (int i = 0; i < args.length; i+=2) {
             String field = args[i];
@@ -86,7 +96,6 @@ public class IrqaQuery {
 //            System.out.println("[doc.add]" + path + ":" + field + ":" + field_text);
         }
 
-        System.out.println("adding " + docid);
         writer.addDocument(doc);
     }
 
@@ -108,86 +117,283 @@ public class IrqaQuery {
     }
 
     public static List<Document> query(String index, String stoppath, String question, int numResult, String sim)  throws Exception {
-        IndexReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(index)));
-        IndexSearcher searcher = new IndexSearcher(reader);
-
-        Analyzer analyzer = new EnglishAnalyzer(
-                StopFilter.makeStopSet(mygetStopwords(stoppath)));
-
-        if (sim.equals("TFIDF"))
-            searcher.setSimilarity(new ClassicSimilarity());
-        else if (sim.equals("BM25"))
-            searcher.setSimilarity(new BM25Similarity());
-        else
-            searcher.setSimilarity(new BM25Similarity());
-
-        String field = "contents";
-        QueryParser parser = new QueryParser(field, analyzer);
-        Query query = parser.parse(parser.escape(question));
-
-        TopDocs results = searcher.search(query, numResult);
-        ScoreDoc[] hits = results.scoreDocs;
-        List<Document> docs = new ArrayList<Document>();
-
-        int numTotalHits = results.totalHits;
-//        System.out.println(numTotalHits + " total matching documents");
-
-        int end = Math.min(numTotalHits, numResult);
-
-        String searchResult = "";
-//        System.out.println("Only results 1 - " + hits.length);
-
-
-        for (int i = 0; i < end; i++) {
-            Document doc = searcher.doc(hits[i].doc);
-            docs.add(doc);
-        }
-
-        return docs;
+        SearcherSession session = luceneInterface.getSearcher(index, stoppath, sim);
+        session.refresh();
+        return session.query(question, numResult);
     }
 
 
 
+    /** Runs every question of questions.json once; the index files are preloaded, but no question is replayed first. */
     public static void batch_query(String basedir, String indexpath) throws Exception  {
+        batch_query(basedir, indexpath, null, 0);
+    }
+
+    /**
+     * Like {@link #batch_query(String, String)}, but first warms the searcher up with the first
+     * {@code warmupQuestions} questions of {@code warmupPath}, so that the timings and stage
+     * latencies printed measure the warm searcher only. {@code warmupPath} should not share
+     * questions with questions.json, or those are timed with their postings already cached.
+     */
+    public static void batch_query(String basedir, String indexpath, String warmupPath,
+                                   int warmupQuestions) throws Exception  {
         indexpath = basedir+"/index_all"+indexpath+"/";
         String stopwords=basedir+"/stopwords.txt";
-        IrqaQuery lp = new IrqaQuery();
 
-        JSONParser parser = new JSONParser();
-        JSONArray questions = (JSONArray) parser.parse(new FileReader(basedir+"/data/questions.json"));
+        SearcherSession session = luceneInterface.openWarmSearcher(indexpath, stopwords, "BM25",
+                warmupPath, warmupQuestions);
+        QueryStats.reset();
+        JsonStream questions = JsonStream.open(basedir+"/data/questions.json");
 
         long startTime = System.currentTimeMillis();
         int answercount=0;
         int questioncount = 0;
-        for (Object o : questions)
+        while (questions.hasNext())
         {
-            JSONObject q = (JSONObject) o;
+            JSONObject q = (JSONObject) questions.next();
 
             String query = (String) q.get("question");
             String gold_id = (String) q.get("paragraph_id");
 
-            List<Document> docs = lp.query(indexpath,stopwords, query, 5, "BM25");
+            TopHits hits = session.queryHits(query, 5);
 
 
             questioncount++;
-            for (Document d:docs) {
-                String docid = d.get("docid");
-
-                if (docid.equals(gold_id)) {
-//                    System.out.println(docid);
-                    answercount = answercount+1;
-                    break;
-                }
+            if (hits.contains(gold_id)) {
+                answercount = answercount+1;
             }
             if (questioncount%1000==0) {
                 long midtime = System.currentTimeMillis() - startTime;
 
                 System.out.format("[%d] midtime=%f\n", questioncount, midtime / 1000.0);
+                System.out.print(QueryStats.summary());
             }
         }
+        questions.close();
+        session.close();
         System.out.format("acc=%f\t%d\t%d\n", answercount*1.0/questioncount*100, answercount, questioncount);
         long estimatedTime = System.currentTimeMillis() - startTime;
         System.out.println(estimatedTime/1000.0);
+        System.out.print(QueryStats.summary());
+    }
+
+
+    /**
+     * Parallel version of {@link #batch_query}: the questions are spread over a pool of
+     * {@code threads[i]} workers sharing one searcher, once per entry of {@code threads}.
+     * With {@code segmentParallel} every query also searches the index segments in parallel.
+     */
+    public static void batch_query_parallel(String basedir, String indexpath, int[] threads,
+                                            boolean segmentParallel) throws Exception  {
+        batch_query_parallel(basedir, indexpath, threads, segmentParallel, null, 0);
+    }
+
+    /**
+     * Like {@link #batch_query_parallel(String, String, int[], boolean)}, but first warms the
+     * searcher up as {@link #batch_query(String, String, String, int)} does.
+     */
+    public static void batch_query_parallel(String basedir, String indexpath, int[] threads, boolean segmentParallel,
+                                            String warmupPath, int warmupQuestions) throws Exception  {
+        indexpath = basedir+"/index_all"+indexpath+"/";
+        String stopwords=basedir+"/stopwords.txt";
+
+        List<String> queryList = new ArrayList<>();
+        List<String> goldList = new ArrayList<>();
+        try (JsonStream questions = JsonStream.open(basedir+"/data/questions.json")) {
+            while (questions.hasNext()) {
+                JSONObject q = (JSONObject) questions.next();
+                queryList.add((String) q.get("question"));
+                goldList.add((String) q.get("paragraph_id"));
+            }
+        }
+
+        final int numQuestions = queryList.size();
+        final String[] queries = queryList.toArray(new String[numQuestions]);
+        final String[] gold_ids = goldList.toArray(new String[numQuestions]);
+
+        ExecutorService segmentExecutor = segmentParallel
+                ? Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())
+                : null;
+        final SearcherSession session = luceneInterface.openSearcher(indexpath, stopwords, "BM25", segmentExecutor);
+
+        try {
+            System.out.format("[warmUp] %s: %s\n", indexpath,
+                    session.warmUp(true, warmupQuestions > 0
+                            ? JsonStream.readField(warmupPath, "question", warmupQuestions)
+                            : Collections.<String>emptyList(), 5));
+            QueryStats.reset();
+            for (int numThreads : threads) {
+                final AtomicInteger next = new AtomicInteger();
+                final AtomicInteger answercount = new AtomicInteger();
+                ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+                List<Future<Void>> futures = new ArrayList<>();
+
+                long startTime = System.currentTimeMillis();
+                for (int t=0; t<numThreads; t++) {
+                    futures.add(workers.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            int i;
+                            while ((i = next.getAndIncrement()) < numQuestions) {
+                                if (session.queryHits(queries[i], 5).contains(gold_ids[i])) {
+                                    answercount.incrementAndGet();
+                                }
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                try {
+                    for (Future<Void> f : futures) {
+                        f.get();
+                    }
+                } finally {
+                    workers.shutdown();
+                }
+                long estimatedTime = System.currentTimeMillis() - startTime;
+
+                System.out.format("threads=%d\tacc=%f\t%d\t%d\ttime=%f\tqps=%f\n", numThreads,
+                        answercount.get()*1.0/numQuestions*100, answercount.get(), numQuestions,
+                        estimatedTime/1000.0, numQuestions*1000.0/Math.max(estimatedTime, 1));
+            }
+        } finally {
+            session.close();
+            if (segmentExecutor != null)
+                segmentExecutor.shutdown();
+        }
+    }
+
+
+    /**
+     * Evaluates questions.json on one index with a single top-K search per question, K being
+     * the largest of {@code cutoffs}. hit@k for every cutoff, MRR and recall are computed from
+     * that one ranking. Per-question rows are streamed to {@code report}.tsv and the summary
+     * is written to {@code report}.json.
+     */
+    public static Evaluation evaluate(String basedir, String indexpath, int[] cutoffs, String report) throws Exception  {
+        indexpath = basedir+"/index_all"+indexpath+"/";
+        String stopwords=basedir+"/stopwords.txt";
+
+        long startTime = System.currentTimeMillis();
+        try (JsonStream questions = JsonStream.open(basedir+"/data/questions.json");
+             SearcherSession session = luceneInterface.openSearcher(indexpath, stopwords, "BM25");
+             BufferedWriter rows = new BufferedWriter(new FileWriter(report + ".tsv"))) {
+            Evaluation eval = new Evaluation(cutoffs, rows);
+            int k = eval.maxCutoff();
+
+            while (questions.hasNext()) {
+                JSONObject q = (JSONObject) questions.next();
+                String query = (String) q.get("question");
+
+                eval.add(query, Evaluation.gold(q.get("paragraph_id")), session.queryHits(query, k).docids);
+                if (eval.getNumQuestions()%1000==0) {
+                    long midtime = System.currentTimeMillis() - startTime;
+                    System.out.format("[%d] midtime=%f\n", eval.getNumQuestions(), midtime / 1000.0);
+                }
+            }
+
+            try (Writer out = new FileWriter(report + ".json")) {
+                eval.summary().writeJSONString(out);
+            }
+            System.out.println(eval);
+            System.out.println((System.currentTimeMillis() - startTime)/1000.0);
+            return eval;
+        }
+    }
+
+
+    /**
+     * Runs {@link #batch_query} on every index of {@code exps} at once. questions.json is
+     * parsed and every question analyzed once; the (index, question block) tasks of all indexes
+     * then share a pool of {@code threads} workers. One accuracy/latency row per index is printed
+     * at the end.
+     */
+    public static void sweep(String basedir, List<String> exps, int threads) throws Exception  {
+        final int blockSize = 64;
+        String stopwords=basedir+"/stopwords.txt";
+
+        long startTime = System.currentTimeMillis();
+        List<Query> queryList = new ArrayList<>();
+        List<String> goldList = new ArrayList<>();
+        QueryParser parser = new QueryParser("contents", AnalyzerRegistry.get(stopwords));
+        try (JsonStream questions = JsonStream.open(basedir+"/data/questions.json")) {
+            while (questions.hasNext()) {
+                JSONObject q = (JSONObject) questions.next();
+                queryList.add(parser.parse(QueryParser.escape((String) q.get("question"))));
+                goldList.add((String) q.get("paragraph_id"));
+            }
+        }
+        final Query[] queries = queryList.toArray(new Query[queryList.size()]);
+        final String[] gold_ids = goldList.toArray(new String[goldList.size()]);
+        long parseTime = System.currentTimeMillis() - startTime;
+
+        int numIndexes = exps.size();
+        final SearcherSession[] sessions = new SearcherSession[numIndexes];
+        final AtomicInteger[] answercounts = new AtomicInteger[numIndexes];
+        final QueryStats.Histogram[] latencies = new QueryStats.Histogram[numIndexes];
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            for (int e=0; e<numIndexes; e++) {
+                sessions[e] = luceneInterface.openSearcher(basedir+"/index_all"+exps.get(e)+"/", stopwords, "BM25");
+                answercounts[e] = new AtomicInteger();
+                latencies[e] = new QueryStats.Histogram();
+            }
+
+            // interleave the indexes so that they all progress together
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int start=0; start<queries.length; start+=blockSize) {
+                for (int e=0; e<numIndexes; e++) {
+                    final int index = e;
+                    final int from = start;
+                    final int to = Math.min(start + blockSize, queries.length);
+                    futures.add(workers.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            for (int i=from; i<to; i++) {
+                                long t = System.nanoTime();
+                                TopHits hits = sessions[index].searchHits(queries[i], 5);
+                                latencies[index].record(System.nanoTime() - t);
+                                if (hits.contains(gold_ids[i]))
+                                    answercounts[index].incrementAndGet();
+                            }
+                            return null;
+                        }
+                    }));
+                }
+            }
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } finally {
+            workers.shutdown();
+            for (SearcherSession session : sessions) {
+                if (session != null)
+                    session.close();
+            }
+        }
+        long estimatedTime = System.currentTimeMillis() - startTime;
+
+        System.out.format("sweep: %d questions x %d indexes, threads=%d, parse=%f, total=%f\n",
+                queries.length, numIndexes, threads, parseTime / 1000.0, estimatedTime / 1000.0);
+        System.out.println("index\tacc\tanswers\tquestions\tp50_ms\tp95_ms\tp99_ms\tmax_ms\tsearch_s");
+        for (int e=0; e<numIndexes; e++) {
+            QueryStats.Histogram h = latencies[e];
+            System.out.format("%s\t%f\t%d\t%d\t%.3f\t%.3f\t%.3f\t%.3f\t%.3f\n", exps.get(e),
+                    answercounts[e].get()*1.0/queries.length*100, answercounts[e].get(), queries.length,
+                    h.percentile(0.50) / 1e6, h.percentile(0.95) / 1e6, h.percentile(0.99) / 1e6,
+                    h.max() / 1e6, h.mean() * h.count() / 1e9);
+        }
+    }
+
+
+    /**
+     * Writes the labeled sentences of (question, docid) from a prebuilt {@link CandidateIndex}
+     * in constant time per pair. Unlike the raw-list scan below, sentences of non-matching
+     * raw-list entries are not written.
+     */
+    public static boolean get_sentence_from_json(CandidateIndex candidates, String question, String docid,
+                                                 BufferedWriter out) throws Exception  {
+        return candidates.write(question, docid, out);
     }
 
 
@@ -243,12 +449,51 @@ public class IrqaQuery {
     }
 
 
-    public static void pipeline(String basedir, String indexpath, String set, JSONObject lookup_sent) throws Exception {
+    /** Sentences of a docid, from a parsed wikilookup JSONObject or a {@link SentenceStore}. */
+    interface SentenceLookup {
+        List<?> get(String docid) throws IOException;
+    }
+
+
+    public static void pipeline(String basedir, String indexpath, String set, final JSONObject lookup_sent) throws Exception {
+        pipeline(basedir, indexpath, set, new SentenceLookup() {
+            @Override
+            public List<?> get(String docid) {
+                return (JSONArray) lookup_sent.get(docid);
+            }
+        });
+    }
+
+
+    /** Same as {@link #pipeline(String, String, String, JSONObject)}, reading sentences from a mapped store. */
+    public static void pipeline(String basedir, String indexpath, String set, final SentenceStore lookup_sent) throws Exception {
+        pipeline(basedir, indexpath, set, new SentenceLookup() {
+            @Override
+            public List<?> get(String docid) {
+                return lookup_sent.get(docid);
+            }
+        });
+    }
+
+
+    /**
+     * Same as {@link #pipeline(String, String, String, JSONObject)} over an index written with
+     * {@link luceneInterface#indexBlock}: the sentences come with the hits, so no lookup is loaded.
+     */
+    public static void pipeline(String basedir, String indexpath, String set) throws Exception {
+        pipeline(basedir, indexpath, set, (SentenceLookup) null);
+    }
+
+
+    /** @param lookup_sent sentences of the non-gold hits, or null to read them from a block index */
+    static void pipeline(String basedir, String indexpath, String set, SentenceLookup lookup_sent) throws Exception {
         System.out.println(set + " started...");
         String index = basedir+"/index_all"+indexpath+"/";
 
         String stopwords=basedir+"/stopwords.txt";
-        IrqaQuery lp = new IrqaQuery();
+        SearcherSession session = luceneInterface.openSearcher(index, stopwords, "BM25");
+        if (lookup_sent == null)
+            requireBlockIndex(session, index);
 
 
         String answer_filename =
@@ -256,19 +501,15 @@ public class IrqaQuery {
         String file = String.format(basedir+"/stats/data_for_analysis/newTACL/WikiQASent-%s.txt", set);
 
 //        String lookup_8kfn = basedir+"/data/wikilookup_8k.json";
-        String documents2_fn = basedir+"/data/documents2.json";
 
-        JSONParser parser = new JSONParser();
-        JSONArray answer_list = (JSONArray) parser.parse(new FileReader(answer_filename));
+        // only the gold paragraph ids are needed, so the raw list is streamed instead of parsed whole
+        List<String> gold_pids = JsonStream.readField(answer_filename, "paragraph_id");
 
 
 
 //        Object obj2 = parser.parse(new FileReader(lookup_8kfn));
 //        JSONObject lookup_8k = (JSONObject) obj2;
 
-        Object obj3 = parser.parse(new FileReader(documents2_fn));
-        JSONArray documents2 = (JSONArray) obj3;
-
 
 
         List<String> questions = new ArrayList<>();
@@ -330,16 +571,13 @@ public class IrqaQuery {
 
         for (int i=0;i<questions.size();i++){
             String query = questions.get(i);
-            List<Document> docs = lp.query(index,stopwords, query, 5, "BM25");
-//            Object o = (Object) answer_list.get(0);
-            JSONObject rl = (JSONObject) answer_list.get(i);
-            String gold_pid =(String) rl.get("paragraph_id");
+            TopHits hits = lookup_sent == null ? session.queryBlocks(query, 5) : session.queryHits(query, 5);
+            String gold_pid = gold_pids.get(i);
 //            String gold_q =(String) rl.get("question");
 
 
-            for (Document d:docs) {
-                String docid = d.get("docid");
-
+            for (int rank=0; rank<hits.size(); rank++) {
+                String docid = hits.docids[rank];
                 if (gold_pid.compareTo(docid)==0) {
 //                    get sentences from gold (alistAll, sentlistAll)
                     for (int j=0;j<sentlistAll.get(i).size();j++) {
@@ -359,9 +597,9 @@ public class IrqaQuery {
 //                    get_sentence_from_lookup();
 //                    lookup_sent.get(docid)
 //                    JSONArray sents = (JSONArray) lookup_sent.get("Timeline_of_classical_mechanics-Abstract");
-                    JSONArray sents = (JSONArray) lookup_sent.get(docid);
+                    List<?> sents = lookup_sent == null ? ((BlockHits) hits).sentences(rank) : lookup_sent.get(docid);
 
-                    if (sents==null) {
+                    if (sents==null || sents.isEmpty()) {
                         System.out.println("noway, "+docid + "\n");
                     }
                     else {
@@ -388,6 +626,7 @@ public class IrqaQuery {
 
 
         outfile.close();
+        session.close();
 
 
 //        System.out.println(raw_list.size());
@@ -396,6 +635,282 @@ public class IrqaQuery {
 
 
 
+    private static final Set<String> BLANK_SENTENCES =
+            new HashSet<>(Arrays.asList("", " ", "  ", "   ", "''"));
+    private static final Set<ByteBuffer> BLANK_SENTENCE_BYTES = new HashSet<>();
+    private static final byte[] NEGATIVE_LABEL = "0".getBytes(StandardCharsets.UTF_8);
+
+    static {
+        for (String blank : BLANK_SENTENCES) {
+            BLANK_SENTENCE_BYTES.add(ByteBuffer.wrap(blank.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+
+    /** The questions of one WikiQASent split in file order, with their sentences and labels. */
+    static class Split {
+        final String set;
+        final List<String> questions = new ArrayList<>();
+        final List<List<String>> sentences = new ArrayList<>();
+        final List<List<String>> labels = new ArrayList<>();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicInteger remaining = new AtomicInteger();
+        List<String> gold_pids;
+        OrderedWriter out;
+        int numline = 0;
+        volatile long endTime;
+
+        Split(String set) {
+            this.set = set;
+        }
+
+        /** Groups consecutive lines of the same question, as {@link #pipeline} does. */
+        void read(String file) throws IOException {
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file)))) {
+                String r;
+                String cquestion = "";
+                List<String> sentlist = new ArrayList<>();
+                List<String> alist = new ArrayList<>();
+
+                while ((r = br.readLine()) != null) {
+                    numline++;
+                    String[] line = r.split("\t");
+
+                    if (!cquestion.equals(line[0])) {
+                        if (!cquestion.isEmpty()) {
+                            sentences.add(sentlist);
+                            labels.add(alist);
+                            questions.add(cquestion);
+                        }
+                        sentlist = new ArrayList<>();
+                        alist = new ArrayList<>();
+                        cquestion = line[0];
+                    }
+                    sentlist.add(line[1]);
+                    alist.add(line[2]);
+                }
+
+                sentences.add(sentlist);
+                labels.add(alist);
+                questions.add(cquestion);
+            }
+        }
+    }
+
+
+    /**
+     * Parallel version of {@link #pipeline} for several splits. All splits share one searcher,
+     * and blocks of questions of every split are expanded concurrently by {@code threads} workers.
+     * Each block is rendered to bytes and handed to the split's {@link OrderedWriter}, so every
+     * output file has the same lines in the same order as the sequential pipeline. Output is
+     * written as UTF-8.
+     */
+    public static void pipeline_parallel(String basedir, String indexpath, String[] sets,
+                                         final JSONObject lookup_sent, int threads) throws Exception {
+        pipeline_parallel(basedir, indexpath, sets, new SentenceLookup() {
+            @Override
+            public List<?> get(String docid) {
+                return (JSONArray) lookup_sent.get(docid);
+            }
+        }, threads);
+    }
+
+
+    /** Same as {@link #pipeline_parallel(String, String, String[], JSONObject, int)}, copying sentence bytes straight from the mapped store. */
+    public static void pipeline_parallel(String basedir, String indexpath, String[] sets,
+                                         final SentenceStore lookup_sent, int threads) throws Exception {
+        pipeline_parallel(basedir, indexpath, sets, new SentenceLookup() {
+            @Override
+            public List<?> get(String docid) {
+                return lookup_sent.getBytes(docid);
+            }
+        }, threads);
+    }
+
+
+    /** Same as {@link #pipeline(String, String, String)}, over several splits in parallel. */
+    public static void pipeline_parallel(String basedir, String indexpath, String[] sets, int threads) throws Exception {
+        pipeline_parallel(basedir, indexpath, sets, (SentenceLookup) null, threads);
+    }
+
+
+    static void pipeline_parallel(String basedir, String indexpath, String[] sets,
+                                  final SentenceLookup lookup_sent, int threads) throws Exception {
+        final int blockSize = 32;
+        String index = basedir+"/index_all"+indexpath+"/";
+        String stopwords=basedir+"/stopwords.txt";
+
+        final long startTime = System.nanoTime();
+        final SearcherSession session = luceneInterface.openSearcher(index, stopwords, "BM25");
+        if (lookup_sent == null)
+            requireBlockIndex(session, index);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        List<Split> splits = new ArrayList<>();
+        Throwable failure = null;
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (String set : sets) {
+                final Split split = new Split(set);
+                split.read(String.format(basedir+"/stats/data_for_analysis/newTACL/WikiQASent-%s.txt", set));
+                split.gold_pids = JsonStream.readField(
+                        String.format(basedir+"/stats/data_for_analysis/newTACL/%s_raw_list.json", set), "paragraph_id");
+                split.out = new OrderedWriter(new BufferedOutputStream(new FileOutputStream(
+                        String.format(basedir+"/stats/data_for_analysis/newTACL/newsplit%s_%s.txt", indexpath, set)), 1 << 16));
+                split.remaining.set((split.questions.size() + blockSize - 1) / blockSize);
+                splits.add(split);
+                System.out.println(set + " started... " + split.questions.size());
+
+                for (int start=0; start<split.questions.size(); start+=blockSize) {
+                    final long seq = start / blockSize;
+                    final int from = start;
+                    final int to = Math.min(start + blockSize, split.questions.size());
+                    futures.add(workers.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            ByteArrayOutputStream block = new ByteArrayOutputStream(1 << 14);
+                            byte[] scratch = new byte[256];
+                            long rows = 0;
+                            for (int i=from; i<to; i++) {
+                                rows += expand(session, lookup_sent, split, i, block, scratch);
+                            }
+                            split.out.write(seq, block.toByteArray());
+                            split.rows.addAndGet(rows);
+                            if (split.remaining.decrementAndGet() == 0)
+                                split.endTime = System.nanoTime();
+                            return null;
+                        }
+                    }));
+                }
+            }
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            // stop the remaining blocks before their outputs are closed under them
+            workers.shutdownNow();
+            try {
+                workers.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Throwable closeFailure = failure;
+            for (Split split : splits) {
+                try {
+                    split.out.close();
+                } catch (IOException e) {
+                    closeFailure = suppress(closeFailure, e);
+                }
+            }
+            try {
+                session.close();
+            } catch (IOException e) {
+                closeFailure = suppress(closeFailure, e);
+            }
+            if (failure == null && closeFailure != null)
+                throw (IOException) closeFailure;
+        }
+        long estimatedTime = System.nanoTime() - startTime;
+
+        long total = 0;
+        for (Split split : splits) {
+            double seconds = (split.endTime - startTime) / 1e9;
+            System.out.format("%s: questions=%d\tlines=%d\trows=%d\t%f sec\t%.1f rows/sec\n", split.set,
+                    split.questions.size(), split.numline, split.rows.get(), seconds, split.rows.get() / seconds);
+            total += split.rows.get();
+        }
+        System.out.format("pipeline: threads=%d\trows=%d\t%f sec\t%.1f rows/sec\n",
+                threads, total, estimatedTime / 1e9, total / (estimatedTime / 1e9));
+    }
+
+
+    /** Closes {@code session} and fails if it cannot return sentences with its hits, before any output is written. */
+    private static void requireBlockIndex(SearcherSession session, String index) throws IOException {
+        if (session.isBlockIndex())
+            return;
+        session.close();
+        throw new IllegalStateException(index + " is not a block index; build it with luceneInterface.indexBlocks"
+                + " or pass a sentence lookup");
+    }
+
+
+    /** Adds {@code next} to {@code primary} as suppressed, or returns it if there is no primary failure yet. */
+    private static Throwable suppress(Throwable primary, Throwable next) {
+        if (primary == null)
+            return next;
+        primary.addSuppressed(next);
+        return primary;
+    }
+
+
+    /** Appends the rows of question {@code i} of {@code split} to {@code block} and returns how many were written. */
+    private static long expand(SearcherSession session, SentenceLookup lookup_sent, Split split, int i,
+                               ByteArrayOutputStream block, byte[] scratch) throws Exception {
+        String query = split.questions.get(i);
+        byte[] question = query.getBytes(StandardCharsets.UTF_8);
+        TopHits hits = lookup_sent == null ? session.queryBlocks(query, 5) : session.queryHits(query, 5);
+        String gold_pid = split.gold_pids.get(i);
+        long rows = 0;
+
+        for (int rank=0; rank<hits.size(); rank++) {
+            String docid = hits.docids[rank];
+            if (gold_pid.equals(docid)) {
+                List<String> sentlist = split.sentences.get(i);
+                List<String> alist = split.labels.get(i);
+                for (int j=0; j<sentlist.size(); j++) {
+                    if (BLANK_SENTENCES.contains(sentlist.get(j)))
+                        continue;
+                    byte[] sentence = sentlist.get(j).getBytes(StandardCharsets.UTF_8);
+                    writeRow(block, question, sentence, 0, sentence.length, alist.get(j).getBytes(StandardCharsets.UTF_8));
+                    rows++;
+                }
+            }
+            else {
+                List<?> sents = lookup_sent == null ? ((BlockHits) hits).sentences(rank) : lookup_sent.get(docid);
+                if (sents==null || sents.isEmpty()) {
+                    System.out.println("noway, "+docid + "\n");
+                    continue;
+                }
+                for (Object sent : sents) {
+                    if (sent instanceof ByteBuffer) {
+                        ByteBuffer bytes = (ByteBuffer) sent;
+                        if (BLANK_SENTENCE_BYTES.contains(bytes))
+                            continue;
+                        if (scratch.length < bytes.remaining())
+                            scratch = new byte[Integer.highestOneBit(bytes.remaining()) << 1];
+                        int length = bytes.remaining();
+                        bytes.duplicate().get(scratch, 0, length);
+                        writeRow(block, question, scratch, 0, length, NEGATIVE_LABEL);
+                    }
+                    else {
+                        String sentence = sent.toString();
+                        if (BLANK_SENTENCES.contains(sentence))
+                            continue;
+                        byte[] b = sentence.getBytes(StandardCharsets.UTF_8);
+                        writeRow(block, question, b, 0, b.length, NEGATIVE_LABEL);
+                    }
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+
+    private static void writeRow(ByteArrayOutputStream block, byte[] question, byte[] sentence, int off, int len,
+                                 byte[] label) {
+        block.write(question, 0, question.length);
+        block.write('\t');
+        block.write(sentence, off, len);
+        block.write('\t');
+        block.write(label, 0, label.length);
+        block.write('\n');
+    }
+
+
+
     /** Simple command-line based search demo. */
     public static void main(String[] args) throws Exception {
         String basedir = "/Users/bong/works/research/irqa";
@@ -416,10 +931,14 @@ public class IrqaQuery {
 //        exps.add("_c_2");
 //        exps.add("_c_0");
 
+        QueryStats.enableAll();
         for (int i=0; i<exps.size(); i++) {
             String indexpath = exps.get(i);
             batch_query(basedir,indexpath);
+//            batch_query_parallel(basedir, indexpath, new int[]{1, 2, 4, 8}, false);
         }
+//        sweep(basedir, exps, Runtime.getRuntime().availableProcessors());
+//        evaluate(basedir, exps.get(0), new int[]{1, 5, 10, 20}, basedir+"/stats/eval"+exps.get(0));
 
 
 
@@ -434,12 +953,20 @@ public class IrqaQuery {
 //        Object obj1 = parser.parse(new FileReader(lookup_sentfn));
 //        JSONObject lookup_sent = (JSONObject) obj1;
 //
+//        // or, after a one-time SentenceStore.convert(lookup_sentfn, basedir+"/data/wikilookup_clean_sentence.bin"):
+//        SentenceStore lookup_sent = SentenceStore.open(basedir+"/data/wikilookup_clean_sentence.bin");
+//
 //        for (int i=0; i<exps.size(); i++) {
 //            String indexpath = exps.get(i);
 //            pipeline(basedir, indexpath, "dev", lookup_sent);
 //            pipeline(basedir, indexpath, "test", lookup_sent);
 //            pipeline(basedir, indexpath, "train", lookup_sent);
 //        }
+//        pipeline_parallel(basedir, exps.get(0), new String[]{"dev", "test", "train"}, lookup_sent,
+//                Runtime.getRuntime().availableProcessors());
+//
+//        // or, over an index written with luceneInterface.indexBlock, without any lookup:
+//        pipeline(basedir, exps.get(0), "dev");
         // pipeline //////////////////////////////////////////////////////////////
 
     }
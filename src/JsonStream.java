@@ -0,0 +1,210 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Incremental reader over the top-level array or object of a JSON file.
+ * <p/>
+ * Only one element is materialized at a time, so files such as {@code questions.json} or
+ * {@code *_raw_list.json} can be processed with memory bounded by their largest element.
+ * For a top-level object, {@link #next()} returns the entry values and {@link #key()} the
+ * key of the value last returned.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class JsonStream implements Iterator<Object>, Closeable {
+    private final Reader reader;
+    private final JSONParser parser = new JSONParser();
+    private final Handler handler = new Handler();
+    private boolean started = false;
+    private boolean pending = false;
+    private String key;
+
+    public JsonStream(Reader reader) {
+        this.reader = reader;
+    }
+
+    public static JsonStream open(String filename) throws IOException {
+        return new JsonStream(new BufferedReader(new FileReader(filename)));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!pending && !handler.done) {
+            try {
+                parser.parse(reader, handler, started);
+                started = true;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } catch (ParseException e) {
+                throw new RuntimeException(e);
+            }
+            pending = handler.ready;
+        }
+        return pending;
+    }
+
+    @Override
+    public Object next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        pending = false;
+        handler.ready = false;
+        key = handler.readyKey;
+        return handler.readyValue;
+    }
+
+    /** Returns the key of the last value returned by {@link #next()} when the top level is an object. */
+    public String key() {
+        return key;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /** Reads the string field {@code field} of every element of a top-level array. */
+    public static List<String> readField(String filename, String field) throws IOException {
+        return readField(filename, field, Integer.MAX_VALUE);
+    }
+
+    /** Reads the string field {@code field} of the first {@code limit} elements of a top-level array. */
+    public static List<String> readField(String filename, String field, int limit) throws IOException {
+        List<String> values = new ArrayList<>();
+        try (JsonStream stream = open(filename)) {
+            while (values.size() < limit && stream.hasNext()) {
+                values.add((String) ((JSONObject) stream.next()).get(field));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Builds the value of each top-level element and pauses the parser once it is complete.
+     */
+    private static class Handler implements ContentHandler {
+        private final List<Object> stack = new ArrayList<>();
+        private final List<String> keys = new ArrayList<>();
+        private boolean inTopLevel = false;
+        private boolean topLevelObject = false;
+
+        boolean done = false;
+        boolean ready = false;
+        Object readyValue;
+        String readyKey;
+
+        @Override
+        public void startJSON() {
+        }
+
+        @Override
+        public void endJSON() {
+            done = true;
+        }
+
+        @Override
+        public boolean startObject() {
+            return start(new JSONObject(), true);
+        }
+
+        @Override
+        public boolean endObject() {
+            return end();
+        }
+
+        @Override
+        public boolean startArray() {
+            return start(new JSONArray(), false);
+        }
+
+        @Override
+        public boolean endArray() {
+            return end();
+        }
+
+        @Override
+        public boolean startObjectEntry(String key) {
+            keys.add(key);
+            return true;
+        }
+
+        @Override
+        public boolean endObjectEntry() {
+            keys.remove(keys.size() - 1);
+            return true;
+        }
+
+        @Override
+        public boolean primitive(Object value) {
+            return value(value);
+        }
+
+        private boolean start(Object container, boolean isObject) {
+            if (!inTopLevel) {
+                inTopLevel = true;
+                topLevelObject = isObject;
+                return true;
+            }
+            stack.add(container);
+            return true;
+        }
+
+        private boolean end() {
+            if (stack.isEmpty()) {
+                inTopLevel = false;
+                return true;
+            }
+            return value(stack.remove(stack.size() - 1));
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean value(Object value) {
+            if (stack.isEmpty()) {
+                ready = true;
+                readyValue = value;
+                readyKey = topLevelObject ? keys.get(keys.size() - 1) : null;
+                return false;
+            }
+
+            Object parent = stack.get(stack.size() - 1);
+            if (parent instanceof JSONObject)
+                ((JSONObject) parent).put(keys.get(keys.size() - 1), value);
+            else
+                ((JSONArray) parent).add(value);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Scores one disjunction of terms under several similarities in a single pass.
+ * <p/>
+ * Each segment's postings are iterated once, doc at a time, and every matching document
+ * is scored under all similarities from the same term frequencies. The query may nest
+ * booleans of SHOULD clauses, as {@link org.apache.lucene.queryparser.classic.QueryParser}
+ * does for a chunk that analyzes into several tokens, and boost clauses. Every boolean level
+ * keeps its own coord, with a nested boolean counting as one clause of its parent, and
+ * weights and query norm are computed per similarity as {@link IndexSearcher#setSimilarity}
+ * would, so each returned list matches a separate search up to float rounding. A
+ * minimum-should-match is not supported.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class MultiSimilaritySearch {
+    private static final Comparator<ScoreDoc> WORST_FIRST = new Comparator<ScoreDoc>() {
+        @Override
+        public int compare(ScoreDoc a, ScoreDoc b) {
+            if (a.score != b.score)
+                return Float.compare(a.score, b.score);
+            return Integer.compare(b.doc, a.doc);
+        }
+    };
+
+    private final Similarity[] sims;
+
+    /** A term clause, or a boolean of SHOULD clauses with its own coord. */
+    private static class Clause {
+        /** index into the unique terms, or -1 for a boolean */
+        final int term;
+        /** index among the term clauses, or -1 for a boolean */
+        final int leaf;
+        final float boost;
+        final Clause[] clauses;
+        final boolean disableCoord;
+        /** per similarity, the coord of each overlap */
+        float[][] coords;
+
+        Clause(int term, int leaf, float boost) {
+            this.term = term;
+            this.leaf = leaf;
+            this.boost = boost;
+            this.clauses = null;
+            this.disableCoord = true;
+        }
+
+        Clause(Clause[] clauses, float boost, boolean disableCoord) {
+            this.term = -1;
+            this.leaf = -1;
+            this.boost = boost;
+            this.clauses = clauses;
+            this.disableCoord = disableCoord;
+        }
+    }
+
+    public MultiSimilaritySearch(Similarity... sims) {
+        this.sims = sims;
+    }
+
+    /**
+     * Returns the terms of a disjunction of term queries, flattening nested boolean queries.
+     *
+     * @throws IllegalArgumentException if the query contains anything but SHOULD term clauses
+     */
+    public static List<Term> terms(Query query) {
+        List<Term> terms = new ArrayList<>();
+        addTerms(query, terms);
+        return terms;
+    }
+
+    private static void addTerms(Query query, List<Term> terms) {
+        if (query instanceof TermQuery) {
+            terms.add(((TermQuery) query).getTerm());
+        } else if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : (BooleanQuery) query) {
+                if (clause.getOccur() != BooleanClause.Occur.SHOULD)
+                    throw new IllegalArgumentException("only SHOULD clauses are supported: " + query);
+                addTerms(clause.getQuery(), terms);
+            }
+        } else {
+            throw new IllegalArgumentException("unsupported query: " + query);
+        }
+    }
+
+    /**
+     * Builds the clause tree of {@code query}, numbering unique terms in {@code termIds} and
+     * term clauses in {@code leaves}.
+     *
+     * @throws IllegalArgumentException if the query contains anything but SHOULD term clauses,
+     *                                  booleans of them and boosts
+     */
+    @SuppressWarnings("deprecation")
+    private static Clause parse(Query query, Map<Term, Integer> termIds, List<Clause> leaves) {
+        if (query instanceof BoostQuery) {
+            BoostQuery boosted = (BoostQuery) query;
+            Clause inner = parse(boosted.getQuery(), termIds, leaves);
+            if (inner.clauses == null) {
+                Clause leaf = new Clause(inner.term, inner.leaf, inner.boost * boosted.getBoost());
+                leaves.set(inner.leaf, leaf);
+                return leaf;
+            }
+            return new Clause(inner.clauses, inner.boost * boosted.getBoost(), inner.disableCoord);
+        } else if (query instanceof TermQuery) {
+            Term term = ((TermQuery) query).getTerm();
+            Integer id = termIds.get(term);
+            if (id == null) {
+                id = termIds.size();
+                termIds.put(term, id);
+            }
+            Clause leaf = new Clause(id, leaves.size(), query.getBoost());
+            leaves.add(leaf);
+            return leaf;
+        } else if (query instanceof BooleanQuery) {
+            BooleanQuery bq = (BooleanQuery) query;
+            if (bq.getMinimumNumberShouldMatch() > 0)
+                throw new IllegalArgumentException("minimum-should-match is not supported: " + query);
+            List<Clause> clauses = new ArrayList<>();
+            for (BooleanClause clause : bq) {
+                if (clause.getOccur() != BooleanClause.Occur.SHOULD)
+                    throw new IllegalArgumentException("only SHOULD clauses are supported: " + query);
+                clauses.add(parse(clause.getQuery(), termIds, leaves));
+            }
+            return new Clause(clauses.toArray(new Clause[clauses.size()]), query.getBoost(), bq.isCoordDisabled());
+        } else {
+            throw new IllegalArgumentException("unsupported query: " + query);
+        }
+    }
+
+    /** Sum of squared weights below {@code clause}, as the boolean and term weights compute it. */
+    private static float valueForNormalization(Clause clause, Similarity.SimWeight[] weights) {
+        if (clause.clauses == null)
+            return weights[clause.leaf].getValueForNormalization() * clause.boost * clause.boost;
+        float sum = 0;
+        for (Clause c : clause.clauses) {
+            sum += valueForNormalization(c, weights);
+        }
+        return sum * clause.boost * clause.boost;
+    }
+
+    private static void normalize(Clause clause, Similarity.SimWeight[] weights, float queryNorm, float boost) {
+        boost *= clause.boost;
+        if (clause.clauses == null) {
+            weights[clause.leaf].normalize(queryNorm, boost);
+            return;
+        }
+        for (Clause c : clause.clauses) {
+            normalize(c, weights, queryNorm, boost);
+        }
+    }
+
+    private void setCoords(Clause clause) {
+        if (clause.clauses == null)
+            return;
+        int n = clause.clauses.length;
+        clause.coords = new float[sims.length][n + 1];
+        for (int s = 0; s < sims.length; s++) {
+            for (int overlap = 0; overlap <= n; overlap++) {
+                clause.coords[s][overlap] = clause.disableCoord ? 1f : sims[s].coord(overlap, n);
+            }
+        }
+        for (Clause c : clause.clauses) {
+            setCoords(c);
+        }
+    }
+
+    /**
+     * Scores the current doc under similarity {@code s}, or returns NaN if {@code clause} does not match it.
+     *
+     * @param freqs frequency of each unique term in the doc, 0 if absent
+     */
+    private static double score(Clause clause, int s, int doc, float[] freqs, Similarity.SimScorer[][] scorers) {
+        if (clause.clauses == null) {
+            float freq = freqs[clause.term];
+            return freq == 0 ? Double.NaN : scorers[s][clause.leaf].score(doc, freq);
+        }
+        double sum = 0;
+        int overlap = 0;
+        for (Clause c : clause.clauses) {
+            double score = score(c, s, doc, freqs, scorers);
+            if (!Double.isNaN(score)) {
+                sum += score;
+                overlap++;
+            }
+        }
+        return overlap == 0 ? Double.NaN : sum * clause.coords[s][overlap];
+    }
+
+    /**
+     * Returns the top {@code numResult} hits of {@code query} for every similarity, in the order
+     * given to the constructor.
+     *
+     * @throws IllegalArgumentException if the rewritten query is not a disjunction of terms, see the class doc
+     */
+    public TopHits[] search(IndexSearcher searcher, Query query, int numResult) throws IOException {
+        Map<Term, Integer> termIds = new LinkedHashMap<>();
+        List<Clause> leaves = new ArrayList<>();
+        Clause root = parse(searcher.rewrite(query), termIds, leaves);
+        Term[] terms = termIds.keySet().toArray(new Term[termIds.size()]);
+        if (terms.length == 0)
+            return empty();
+
+        Map<String, CollectionStatistics> collectionStats = new HashMap<>();
+        for (Term term : terms) {
+            if (!collectionStats.containsKey(term.field()))
+                collectionStats.put(term.field(), searcher.collectionStatistics(term.field()));
+        }
+        TermStatistics[] termStats = new TermStatistics[terms.length];
+        for (int t = 0; t < terms.length; t++) {
+            termStats[t] = searcher.termStatistics(terms[t], TermContext.build(searcher.getTopReaderContext(), terms[t]));
+        }
+
+        // per similarity: one normalized weight per term clause
+        Similarity.SimWeight[][] weights = new Similarity.SimWeight[sims.length][leaves.size()];
+        for (int s = 0; s < sims.length; s++) {
+            for (Clause leaf : leaves) {
+                weights[s][leaf.leaf] = sims[s].computeWeight(collectionStats.get(terms[leaf.term].field()),
+                        termStats[leaf.term]);
+            }
+            float queryNorm = sims[s].queryNorm(valueForNormalization(root, weights[s]));
+            if (Float.isInfinite(queryNorm) || Float.isNaN(queryNorm))
+                queryNorm = 1.0f;
+            normalize(root, weights[s], queryNorm, 1.0f);
+        }
+        setCoords(root);
+
+        List<PriorityQueue<ScoreDoc>> queues = new ArrayList<>();
+        for (int s = 0; s < sims.length; s++) {
+            queues.add(new PriorityQueue<ScoreDoc>(Math.max(1, numResult), WORST_FIRST));
+        }
+        int totalHits = 0;
+
+        for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+            PostingsEnum[] postings = new PostingsEnum[terms.length];
+            boolean any = false;
+            for (int t = 0; t < terms.length; t++) {
+                Terms fieldTerms = leaf.reader().terms(terms[t].field());
+                if (fieldTerms == null)
+                    continue;
+                TermsEnum termsEnum = fieldTerms.iterator();
+                if (termsEnum.seekExact(terms[t].bytes())) {
+                    postings[t] = termsEnum.postings(null, PostingsEnum.FREQS);
+                    postings[t].nextDoc();
+                    any = true;
+                }
+            }
+            if (!any)
+                continue;
+            Similarity.SimScorer[][] scorers = new Similarity.SimScorer[sims.length][leaves.size()];
+            for (int s = 0; s < sims.length; s++) {
+                for (Clause c : leaves) {
+                    if (postings[c.term] != null)
+                        scorers[s][c.leaf] = sims[s].simScorer(weights[s][c.leaf], leaf);
+                }
+            }
+
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            float[] freqs = new float[terms.length];
+            while (true) {
+                int doc = DocIdSetIterator.NO_MORE_DOCS;
+                for (PostingsEnum p : postings) {
+                    if (p != null && p.docID() < doc)
+                        doc = p.docID();
+                }
+                if (doc == DocIdSetIterator.NO_MORE_DOCS)
+                    break;
+
+                boolean live = liveDocs == null || liveDocs.get(doc);
+                for (int t = 0; t < terms.length; t++) {
+                    PostingsEnum p = postings[t];
+                    if (p != null && p.docID() == doc) {
+                        freqs[t] = live ? p.freq() : 0;
+                        p.nextDoc();
+                    } else {
+                        freqs[t] = 0;
+                    }
+                }
+                if (!live)
+                    continue;
+
+                totalHits++;
+                int globalDoc = leaf.docBase + doc;
+                for (int s = 0; s < sims.length; s++) {
+                    offer(queues.get(s), numResult,
+                            new ScoreDoc(globalDoc, (float) score(root, s, doc, freqs, scorers)));
+                }
+            }
+        }
+
+        TopHits[] hits = new TopHits[sims.length];
+        for (int s = 0; s < sims.length; s++) {
+            PriorityQueue<ScoreDoc> queue = queues.get(s);
+            ScoreDoc[] top = new ScoreDoc[queue.size()];
+            for (int i = top.length - 1; i >= 0; i--) {
+                top[i] = queue.poll();
+            }
+            float maxScore = top.length == 0 ? Float.NaN : top[0].score;
+            hits[s] = TopHits.from(searcher, new TopDocs(totalHits, top, maxScore), numResult);
+        }
+        return hits;
+    }
+
+    private static void offer(PriorityQueue<ScoreDoc> queue, int numResult, ScoreDoc hit) {
+        if (numResult <= 0)
+            return;
+        if (queue.size() < numResult) {
+            queue.add(hit);
+        } else if (WORST_FIRST.compare(hit, queue.peek()) > 0) {
+            queue.poll();
+            queue.add(hit);
+        }
+    }
+
+    private TopHits[] empty() {
+        TopHits[] hits = new TopHits[sims.length];
+        for (int s = 0; s < sims.length; s++) {
+            hits[s] = new TopHits(new String[0], new float[0], 0);
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TrackingIndexWriter;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Index that can be searched while it is being updated.
+ * <p/>
+ * Searchers come from the live {@link IndexWriter} (near-real-time readers), and a background
+ * {@link ControlledRealTimeReopenThread} reopens them so that a change becomes visible within
+ * {@code maxStaleSec} seconds, or sooner if a caller waits for it with {@link #waitForGeneration}.
+ * Documents are keyed by their "docid" field and laid out as by {@link luceneInterface#indexDoc},
+ * or by {@link luceneInterface#indexBlock} for the block methods; on a {@link BlockIndex},
+ * paragraphs are only replaced as whole blocks.
+ * Changes are only durable after {@link #commit()}; {@link #close()} commits.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class NrtIndex implements Closeable {
+    private final String indexPath;
+    private final String stopPath;
+    private final String sim;
+    private final DirectoryStrategy strategy;
+    private final double maxStaleSec;
+    private final Directory dir;
+    private final IndexWriter writer;
+    private final TrackingIndexWriter tracking;
+    private final SearcherManager manager;
+    private final ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+    private final List<SearcherManager> extraManagers = new CopyOnWriteArrayList<>();
+    /** whether the index has {@link BlockIndex} blocks, whose paragraphs must be replaced with their sentences */
+    private volatile boolean blocks;
+
+    public NrtIndex(String indexPath, String stopPath, String sim, double maxStaleSec) throws IOException {
+        this(indexPath, stopPath, sim, DirectoryStrategy.FS, maxStaleSec);
+    }
+
+    /**
+     * Opens or creates the index at {@code indexPath}.
+     *
+     * @param maxStaleSec how old, in seconds, the searcher may get while changes are pending
+     */
+    public NrtIndex(String indexPath, String stopPath, String sim, DirectoryStrategy strategy,
+                    double maxStaleSec) throws IOException {
+        this.indexPath = indexPath;
+        this.stopPath = stopPath;
+        this.sim = sim;
+        this.strategy = strategy;
+        this.maxStaleSec = maxStaleSec;
+        this.dir = strategy.open(Paths.get(indexPath));
+
+        final Similarity similarity = SearcherSession.makeSimilarity(sim);
+        IndexWriterConfig iwc = new IndexWriterConfig(AnalyzerRegistry.get(stopPath));
+        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        iwc.setSimilarity(similarity);
+        try {
+            this.writer = new IndexWriter(dir, iwc);
+        } catch (IOException e) {
+            dir.close();
+            throw e;
+        }
+        this.tracking = new TrackingIndexWriter(writer);
+        this.manager = new SearcherManager(writer, true, SearcherSession.searcherFactory(similarity, null));
+        IndexSearcher searcher = manager.acquire();
+        try {
+            this.blocks = BlockIndex.isBlockIndex(searcher.getIndexReader());
+        } finally {
+            manager.release(searcher);
+        }
+
+        // extra managers see a change no later than a waitForGeneration on it returns
+        manager.addListener(new ReferenceManager.RefreshListener() {
+            @Override
+            public void beforeRefresh() {
+            }
+
+            @Override
+            public void afterRefresh(boolean didRefresh) throws IOException {
+                if (!didRefresh)
+                    return;
+                for (SearcherManager extra : extraManagers) {
+                    try {
+                        extra.maybeRefreshBlocking();
+                    } catch (AlreadyClosedException e) {
+                        // closed by its session since the loop started
+                    }
+                }
+            }
+        });
+
+        this.reopenThread = new ControlledRealTimeReopenThread<>(tracking, manager,
+                maxStaleSec, Math.min(0.025, maxStaleSec));
+        reopenThread.setName("NrtIndex reopen " + indexPath);
+        reopenThread.setDaemon(true);
+        reopenThread.start();
+    }
+
+    public String getIndexPath() {
+        return indexPath;
+    }
+
+    public String getStopPath() {
+        return stopPath;
+    }
+
+    public String getSim() {
+        return sim;
+    }
+
+    public DirectoryStrategy getDirectoryStrategy() {
+        return strategy;
+    }
+
+    public double getMaxStaleSec() {
+        return maxStaleSec;
+    }
+
+    Directory getDirectory() {
+        return dir;
+    }
+
+    /** Returns the manager of the near-real-time searchers; it is closed with this index. */
+    public SearcherManager getManager() {
+        return manager;
+    }
+
+    public IndexWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * Opens another manager of near-real-time searchers over this index's writer, for searchers
+     * built differently, e.g. with another similarity. It is refreshed along with
+     * {@link #getManager()}; give it back with {@link #closeManager}.
+     */
+    public SearcherManager openManager(SearcherFactory factory) throws IOException {
+        SearcherManager extra = new SearcherManager(writer, true, factory);
+        extraManagers.add(extra);
+        return extra;
+    }
+
+    public void closeManager(SearcherManager extra) throws IOException {
+        extraManagers.remove(extra);
+        extra.close();
+    }
+
+    /**
+     * Adds a document without checking for an existing one with the same docid.
+     *
+     * @return the generation to pass to {@link #waitForGeneration} to see the change
+     */
+    public long addDocument(String docid, String... args) throws IOException {
+        return tracking.addDocument(luceneInterface.makeDocument(docid, args));
+    }
+
+    /**
+     * Replaces every document with this docid, or adds it if there is none.
+     *
+     * @throws IllegalStateException on a block index, where it would leave the sentences of the old paragraph behind
+     */
+    public long updateDocument(String docid, String... args) throws IOException {
+        if (blocks)
+            throw new IllegalStateException(indexPath + " is a block index; replace paragraphs with updateBlock");
+        return tracking.updateDocument(new Term("docid", docid), luceneInterface.makeDocument(docid, args));
+    }
+
+    /** Adds paragraph {@code docid} with its {@code sentences} as one block, see {@link BlockIndex}. */
+    public long addBlock(String docid, List<String> sentences, String... args) throws IOException {
+        blocks = true;
+        return tracking.addDocuments(BlockIndex.makeBlock(docid, sentences, args));
+    }
+
+    /** Replaces the block of paragraph {@code docid}, children included, or adds it if there is none. */
+    public long updateBlock(String docid, List<String> sentences, String... args) throws IOException {
+        blocks = true;
+        return tracking.updateDocuments(BlockIndex.blockTerm(docid), BlockIndex.makeBlock(docid, sentences, args));
+    }
+
+    /** Deletes the documents with this docid, and the sentences of its block if it has one. */
+    public long deleteDocument(String docid) throws IOException {
+        return tracking.deleteDocuments(new Term("docid", docid), BlockIndex.blockTerm(docid));
+    }
+
+    /** Blocks until searchers reflect every change up to {@code generation}. */
+    public void waitForGeneration(long generation) throws InterruptedException {
+        reopenThread.waitForGeneration(generation);
+    }
+
+    public void commit() throws IOException {
+        writer.commit();
+    }
+
+    /** Returns the current near-real-time searcher; every call must be paired with {@link #release}. */
+    public IndexSearcher acquire() throws IOException {
+        return manager.acquire();
+    }
+
+    public void release(IndexSearcher searcher) throws IOException {
+        manager.release(searcher);
+    }
+
+    /** Stops the reopen thread, commits pending changes and closes the writer. */
+    @Override
+    public void close() throws IOException {
+        reopenThread.close();
+        try {
+            for (SearcherManager extra : extraManagers) {
+                extra.close();
+            }
+            extraManagers.clear();
+            manager.close();
+        } finally {
+            try {
+                writer.close();
+            } finally {
+                dir.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes byte blocks produced concurrently to one stream in sequence-number order.
+ * <p/>
+ * Block {@code n} is written as soon as blocks {@code 0..n-1} have been; blocks that arrive
+ * early are held until then. Producers therefore never wait for each other, and the output
+ * is the same as if the blocks had been written sequentially.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class OrderedWriter implements Closeable {
+    private final OutputStream out;
+    private final Map<Long, byte[]> pending = new HashMap<>();
+    private long next = 0;
+    private long bytes = 0;
+
+    public OrderedWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes block {@code seq}, and every held block following it, once all earlier blocks have been written.
+     *
+     * @throws IllegalArgumentException if {@code seq} was already written or is held
+     */
+    public synchronized void write(long seq, byte[] block) throws IOException {
+        if (seq < next || pending.containsKey(seq))
+            throw new IllegalArgumentException("block already written: " + seq);
+        if (seq != next) {
+            pending.put(seq, block);
+            return;
+        }
+
+        out.write(block);
+        bytes += block.length;
+        next++;
+        while ((block = pending.remove(next)) != null) {
+            out.write(block);
+            bytes += block.length;
+            next++;
+        }
+    }
+
+    /** Returns the sequence number of the next block to be written. */
+    public synchronized long getNext() {
+        return next;
+    }
+
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Closes the stream.
+     *
+     * @throws IOException if blocks are still held because an earlier one never arrived
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (!pending.isEmpty())
+                throw new IOException(pending.size() + " blocks were never written, missing block " + next);
+        } finally {
+            out.close();
+        }
+    }
+}
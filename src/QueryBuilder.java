@@ -0,0 +1,131 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds a multi-field disjunction from a raw question without a query parser.
+ * <p/>
+ * The question is analyzed once, and every term becomes one SHOULD {@link TermQuery} per field,
+ * wrapped in a {@link BoostQuery} if that field's boost is not 1. Without a minimum-should-match
+ * all clauses are flat; with one, the fields of each term are grouped so that the minimum
+ * counts question terms. Nothing needs escaping, since no query syntax is involved.
+ * <p/>
+ * A builder reuses its token buffer and is not thread-safe; keep one per thread.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class QueryBuilder {
+    private final Analyzer analyzer;
+    private final String[] fields;
+    private final float[] boosts;
+    private final int minimumShouldMatch;
+    private final List<String> tokens = new ArrayList<>();
+
+    /**
+     * @param boosts             one boost per field, or null for all 1
+     * @param minimumShouldMatch how many question terms must match, or 0 for any
+     */
+    public QueryBuilder(Analyzer analyzer, String[] fields, float[] boosts, int minimumShouldMatch) {
+        if (fields.length == 0)
+            throw new IllegalArgumentException("no fields");
+        if (boosts != null && boosts.length != fields.length)
+            throw new IllegalArgumentException("need one boost per field");
+        this.analyzer = analyzer;
+        this.fields = fields.clone();
+        this.boosts = boosts == null ? null : boosts.clone();
+        this.minimumShouldMatch = minimumShouldMatch;
+    }
+
+    /** Returns a builder with the same fields, boosts and minimum-should-match over another analyzer. */
+    public QueryBuilder withAnalyzer(Analyzer analyzer) {
+        return new QueryBuilder(analyzer, fields, boosts, minimumShouldMatch);
+    }
+
+    public Analyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    public String[] getFields() {
+        return fields.clone();
+    }
+
+    public int getMinimumShouldMatch() {
+        return minimumShouldMatch;
+    }
+
+    /** Returns true if {@code other} has the same fields, boosts and minimum-should-match. */
+    public boolean sameShape(QueryBuilder other) {
+        return other != null && Arrays.equals(fields, other.fields) && Arrays.equals(boosts, other.boosts)
+                && minimumShouldMatch == other.minimumShouldMatch;
+    }
+
+    /** Returns the terms of the question last passed to {@link #build}; valid until the next call. */
+    public List<String> tokens() {
+        return tokens;
+    }
+
+    public Query build(String question) throws IOException {
+        tokens.clear();
+        try (TokenStream ts = analyzer.tokenStream(fields[0], question)) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                tokens.add(term.toString());
+            }
+            ts.end();
+        }
+
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        if (minimumShouldMatch <= 0 || fields.length == 1) {
+            for (String token : tokens) {
+                for (int f = 0; f < fields.length; f++) {
+                    query.add(clause(f, token), BooleanClause.Occur.SHOULD);
+                }
+            }
+        } else {
+            for (String token : tokens) {
+                BooleanQuery.Builder perToken = new BooleanQuery.Builder();
+                for (int f = 0; f < fields.length; f++) {
+                    perToken.add(clause(f, token), BooleanClause.Occur.SHOULD);
+                }
+                query.add(perToken.build(), BooleanClause.Occur.SHOULD);
+            }
+        }
+        if (minimumShouldMatch > 0)
+            query.setMinimumNumberShouldMatch(Math.min(minimumShouldMatch, tokens.size()));
+        return query.build();
+    }
+
+    private Query clause(int field, String token) {
+        Query term = new TermQuery(new Term(fields[field], token));
+        if (boosts == null || boosts[field] == 1f)
+            return term;
+        return new BoostQuery(term, boosts[field]);
+    }
+}
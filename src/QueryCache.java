@@ -0,0 +1,120 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of query results.
+ * <p/>
+ * Keys are built by {@link #key} from the analyzed question tokens, the similarity, the
+ * number of results and the version of the reader that served the query, so a refresh
+ * onto a changed index never returns stale results. One cache may be shared between
+ * several sessions.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class QueryCache {
+    private final int maxEntries;
+    private final LinkedHashMap<String, Object> entries;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public QueryCache(final int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                if (size() > QueryCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param kind    what the cached value is, e.g. "hits" or "docs"
+     * @param index   the index the query runs on
+     * @param reader  the reader serving the query; its version invalidates older entries
+     * @param tokens  the analyzed question
+     */
+    public static String key(String kind, String index, IndexReader reader, String sim, int numResult,
+                             List<String> tokens) {
+        long version = reader instanceof DirectoryReader ? ((DirectoryReader) reader).getVersion() : -1;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(kind).append('\u0001').append(index).append('\u0001').append(version)
+                .append('\u0001').append(sim).append('\u0001').append(numResult).append('\u0001');
+        for (String token : tokens) {
+            sb.append(token).append('\u0000');
+        }
+        return sb.toString();
+    }
+
+    public synchronized Object get(String key) {
+        Object value = entries.get(key);
+        if (value == null)
+            misses++;
+        else
+            hits++;
+        return value;
+    }
+
+    public synchronized void put(String key, Object value) {
+        entries.put(key, value);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized double hitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : hits * 1.0 / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("size=%d/%d\thits=%d\tmisses=%d\thit_ratio=%f\tevictions=%d",
+                entries.size(), maxEntries, hits, misses, hitRatio(), evictions);
+    }
+}
@@ -0,0 +1,446 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resident query server speaking JSON lines on a loopback socket.
+ * <p/>
+ * Every request is one JSON object on one line, and every response is one line. Requests
+ * of a connection may be pipelined: they are executed concurrently on a shared worker pool,
+ * and their responses are written back in request order through an {@link OrderedWriter}.
+ * An {@code index_doc} request waits for the requests before it and runs before the ones after
+ * it, so, unless it is sent with "wait":false, a connection always sees its own updates.
+ * Searcher sessions stay open across connections, keyed by (index, stopwords, similarity),
+ * and share one result cache. Every request reopens its session's reader if the index has
+ * new commits, so an index rebuilt or committed while the server runs is searched as it is now.
+ * <pre>
+ *   {"op":"query", "index":..., "stop":..., "sim":"BM25", "question":..., "k":5}
+ *       -> {"docids":[...], "scores":[...], "totalHits":n}
+ *   {"op":"batch_query", "index":..., "stop":..., "sim":"BM25", "questions":[...], "k":5}
+ *       -> {"results":[{"docids":..., "scores":..., "totalHits":...}, ...]}
+ *   {"op":"index_doc", "index":..., "stop":..., "sim":"BM25", "docid":..., "fields":{"contents":...}}
+ *       -> {"generation":g}
+ *   {"op":"stats"}
+ *       -> {"sessions":[...], "cache":..., "query_stats":{...}, "requests":n}
+ * </pre>
+ * "sim" defaults to BM25 and "k" to 5. A request's "id", if any, is echoed in its response, and
+ * a failed request is answered with {"error": message}. {@code index_doc} adds or replaces the
+ * document with that docid through a {@link NrtIndex} on the index path; from then on, queries
+ * on that path are served from near-real-time searchers over its writer, still scored with the
+ * "sim" and parsed with the "stop" of each request. The response is sent once the
+ * document is searchable; with "wait":false it is sent at once, and the document becomes
+ * searchable within a second.
+ * <p/>
+ * Usage: {@code QueryServer [port] [threads] [cacheEntries]}
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class QueryServer implements Closeable {
+    public static final int DEFAULT_PORT = 7070;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService workers;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    private final Map<String, Lease> sessions = new LinkedHashMap<>();
+    private final Map<String, NrtIndex> nrtIndexes = new LinkedHashMap<>();
+    private final QueryCache cache;
+    private final AtomicLong requests = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * Binds to {@code port} on the loopback address; 0 picks a free port, see {@link #getPort()}.
+     *
+     * @param cacheEntries size of the shared result cache, or 0 for none
+     */
+    public QueryServer(int port, int numThreads, int cacheEntries) throws IOException {
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.workers = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        this.cache = cacheEntries > 0 ? new QueryCache(cacheEntries) : null;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** Accepts connections until {@link #close()} is called. */
+    public void serve() throws IOException {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (closed)
+                    return;
+                throw e;
+            }
+            connections.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        handle(socket);
+                    } catch (IOException e) {
+                        System.err.println("[QueryServer] " + e);
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    /** Reads the requests of one connection and writes their responses in order. */
+    private void handle(Socket socket) throws IOException {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             OrderedWriter out = new OrderedWriter(new BufferedOutputStream(s.getOutputStream()))) {
+            JSONParser parser = new JSONParser();
+            List<Future<Void>> pending = new ArrayList<>();
+            long seq = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                requests.incrementAndGet();
+                final long n = seq++;
+                final OrderedWriter writer = out;
+
+                final JSONObject request;
+                try {
+                    request = (JSONObject) parser.parse(line);
+                } catch (Exception e) {
+                    respond(writer, n, error(null, "malformed request: " + e));
+                    continue;
+                }
+                // an update waits for earlier requests and holds back later ones, so a connection reads its own writes
+                boolean barrier = "index_doc".equals(request.get("op"));
+                if (barrier && !drain(pending))
+                    return;
+                pending.add(workers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        JSONObject response;
+                        try {
+                            response = execute(request);
+                        } catch (Exception e) {
+                            response = error(request.get("id"), e.toString());
+                        }
+                        respond(writer, n, response);
+                        return null;
+                    }
+                }));
+                if (barrier && !drain(pending))
+                    return;
+
+                if (pending.size() > 1024) {
+                    for (Iterator<Future<Void>> it = pending.iterator(); it.hasNext(); ) {
+                        if (it.next().isDone())
+                            it.remove();
+                    }
+                }
+            }
+
+            drain(pending);
+        }
+    }
+
+    /** Waits for every request in {@code pending}; returns false if interrupted. */
+    private static boolean drain(List<Future<Void>> pending) {
+        for (Future<Void> f : pending) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                System.err.println("[QueryServer] " + e.getCause());
+            }
+        }
+        pending.clear();
+        return true;
+    }
+
+    private static void respond(OrderedWriter out, long seq, JSONObject response) throws IOException {
+        out.write(seq, (response.toJSONString() + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject error(Object id, String message) {
+        JSONObject response = new JSONObject();
+        if (id != null)
+            response.put("id", id);
+        response.put("error", message);
+        return response;
+    }
+
+    @SuppressWarnings("unchecked")
+    JSONObject execute(JSONObject request) throws Exception {
+        String op = (String) request.get("op");
+        JSONObject response;
+        if ("query".equals(op)) {
+            Lease lease = session(request);
+            try {
+                response = toJson(lease.session.queryHits(string(request, "question"), k(request)));
+            } finally {
+                release(lease);
+            }
+        } else if ("batch_query".equals(op)) {
+            Lease lease = session(request);
+            try {
+                int k = k(request);
+                JSONArray results = new JSONArray();
+                for (Object question : (List<?>) required(request, "questions")) {
+                    results.add(toJson(lease.session.queryHits((String) question, k)));
+                }
+                response = new JSONObject();
+                response.put("results", results);
+            } finally {
+                release(lease);
+            }
+        } else if ("index_doc".equals(op)) {
+            response = indexDoc(request);
+        } else if ("stats".equals(op)) {
+            response = stats();
+        } else {
+            throw new IllegalArgumentException("unknown op: " + op);
+        }
+
+        if (request.get("id") != null)
+            response.put("id", request.get("id"));
+        return response;
+    }
+
+    private static Object required(JSONObject request, String field) {
+        Object value = request.get(field);
+        if (value == null)
+            throw new IllegalArgumentException("missing \"" + field + "\"");
+        return value;
+    }
+
+    private static String string(JSONObject request, String field) {
+        return (String) required(request, field);
+    }
+
+    private static String sim(JSONObject request) {
+        Object sim = request.get("sim");
+        return sim == null ? "BM25" : (String) sim;
+    }
+
+    private static int k(JSONObject request) {
+        Object k = request.get("k");
+        return k == null ? 5 : ((Number) k).intValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject toJson(TopHits hits) {
+        JSONArray docids = new JSONArray();
+        JSONArray scores = new JSONArray();
+        for (int i = 0; i < hits.size(); i++) {
+            docids.add(hits.docids[i]);
+            scores.add(hits.scores[i]);
+        }
+        JSONObject json = new JSONObject();
+        json.put("docids", docids);
+        json.put("scores", scores);
+        json.put("totalHits", hits.totalHits);
+        return json;
+    }
+
+    /**
+     * A session and the number of its users: one for the sessions map while it is listed, plus
+     * one per request running on it. It is closed when the last user releases it, so a session
+     * retired from the map stays open for the requests still using it.
+     */
+    private static class Lease {
+        final SearcherSession session;
+        int refs = 1;
+
+        Lease(SearcherSession session) {
+            this.session = session;
+        }
+    }
+
+    /**
+     * Returns the warm session of the request's index, opening it on first use and refreshed
+     * to the latest commit, with a reference that must be given back with {@link #release}.
+     */
+    private Lease session(JSONObject request) throws IOException {
+        String index = string(request, "index");
+        String stop = string(request, "stop");
+        String sim = sim(request);
+
+        Lease lease;
+        synchronized (sessions) {
+            NrtIndex nrt = nrtIndexes.get(index);
+            String key = (nrt != null ? "nrt\0" : "") + index + "\0" + stop + "\0" + sim;
+            lease = sessions.get(key);
+            if (lease == null) {
+                SearcherSession session = nrt != null ? luceneInterface.openSearcher(nrt, stop, sim)
+                        : luceneInterface.openSearcher(index, stop, sim);
+                session.setResultCache(cache);
+                lease = new Lease(session);
+                sessions.put(key, lease);
+            }
+            lease.refs++;
+        }
+        // outside the lock, so a reopen does not hold up requests on other sessions
+        try {
+            lease.session.refresh();
+        } catch (IOException | RuntimeException e) {
+            release(lease);
+            throw e;
+        }
+        return lease;
+    }
+
+    /** Drops one reference to {@code lease}, closing its session after the last one; call while holding {@code sessions}. */
+    private static void releaseLocked(Lease lease) throws IOException {
+        if (--lease.refs == 0)
+            lease.session.close();
+    }
+
+    private void release(Lease lease) throws IOException {
+        synchronized (sessions) {
+            releaseLocked(lease);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private JSONObject indexDoc(JSONObject request) throws Exception {
+        String index = string(request, "index");
+        String docid = string(request, "docid");
+        Map<?, ?> fields = (Map<?, ?>) required(request, "fields");
+        String[] args = new String[fields.size() * 2];
+        int i = 0;
+        for (Map.Entry<?, ?> field : fields.entrySet()) {
+            args[i++] = String.valueOf(field.getKey());
+            args[i++] = String.valueOf(field.getValue());
+        }
+
+        NrtIndex nrt;
+        synchronized (sessions) {
+            nrt = nrtIndexes.get(index);
+            if (nrt == null) {
+                // read-only sessions on this path would keep serving the last commit, so retire
+                // them; requests still running on one keep it open until they finish
+                for (Iterator<Map.Entry<String, Lease>> it = sessions.entrySet().iterator(); it.hasNext(); ) {
+                    Lease lease = it.next().getValue();
+                    if (lease.session.getIndexPath().equals(index)) {
+                        it.remove();
+                        releaseLocked(lease);
+                    }
+                }
+                nrt = luceneInterface.openNrtIndex(index, string(request, "stop"), sim(request), 1.0);
+                nrtIndexes.put(index, nrt);
+            }
+        }
+
+        long generation = nrt.updateDocument(docid, args);
+        if (!Boolean.FALSE.equals(request.get("wait")))
+            nrt.waitForGeneration(generation);
+
+        JSONObject response = new JSONObject();
+        response.put("generation", generation);
+        return response;
+    }
+
+    @SuppressWarnings("unchecked")
+    private JSONObject stats() {
+        JSONArray open = new JSONArray();
+        synchronized (sessions) {
+            for (Lease lease : sessions.values()) {
+                SearcherSession session = lease.session;
+                JSONObject s = new JSONObject();
+                s.put("index", session.getIndexPath());
+                s.put("stop", session.getStopPath());
+                s.put("sim", session.getSim());
+                s.put("nrt", nrtIndexes.containsKey(session.getIndexPath()));
+                open.add(s);
+            }
+        }
+
+        JSONObject response = new JSONObject();
+        response.put("sessions", open);
+        response.put("cache", cache == null ? null : cache.toString());
+        response.put("query_stats", QueryStats.snapshotJson());
+        response.put("requests", requests.get());
+        return response;
+    }
+
+    /** Stops accepting connections and closes every session; near-real-time indexes are committed. */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        connections.shutdown();
+        workers.shutdown();
+        synchronized (sessions) {
+            for (Lease lease : sessions.values()) {
+                releaseLocked(lease);
+            }
+            sessions.clear();
+            for (NrtIndex nrt : nrtIndexes.values()) {
+                nrt.close();
+            }
+            nrtIndexes.clear();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int cacheEntries = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+        QueryStats.enableAll();
+        final QueryServer server = new QueryServer(port, threads, cacheEntries);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        System.out.format("[QueryServer] listening on %s:%d, threads=%d, cache=%d\n",
+                InetAddress.getLoopbackAddress().getHostAddress(), server.getPort(), threads, cacheEntries);
+        server.serve();
+    }
+}
@@ -0,0 +1,456 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.lucene.analysis.Analyzer;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Long-lived searcher over one index directory.
+ * <p/>
+ * The session keeps a single {@link SearcherManager}, so every query shares the same
+ * warmed reader instead of reopening the index. Searchers must be given back with
+ * {@link #release(IndexSearcher)}; {@link #refresh()} picks up new commits and
+ * {@link #close()} releases the underlying files.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class SearcherSession implements Closeable {
+    private final String indexPath;
+    private final String stopPath;
+    private final String sim;
+    private final DirectoryStrategy strategy;
+    private final Directory dir;
+    private final long loadMillis;
+    private final long openMillis;
+    private final SearcherManager manager;
+    private final boolean ownsManager;
+    /** the index whose writer this session's own near-real-time manager reads, or null */
+    private final NrtIndex nrt;
+    private volatile QueryCache cache;
+
+    public SearcherSession(String indexPath, String stopPath, String sim) throws IOException {
+        this(indexPath, stopPath, sim, null);
+    }
+
+    public SearcherSession(String indexPath, String stopPath, String sim,
+                           final ExecutorService searchExecutor) throws IOException {
+        this(indexPath, stopPath, sim, DirectoryStrategy.FS, searchExecutor);
+    }
+
+    /**
+     * @param strategy       how the index directory is opened; {@link DirectoryStrategy#RAM} copies it to the heap first
+     * @param searchExecutor if not null, each query searches the index segments in parallel on this
+     *                       executor (see {@link IndexSearcher#IndexSearcher(IndexReader, ExecutorService)}).
+     *                       The executor is owned by the caller.
+     */
+    public SearcherSession(String indexPath, String stopPath, String sim, DirectoryStrategy strategy,
+                           final ExecutorService searchExecutor) throws IOException {
+        this.indexPath = indexPath;
+        this.stopPath = stopPath;
+        this.sim = sim;
+        this.strategy = strategy;
+        long t = QueryStats.start(QueryStats.Stage.OPEN);
+        long startTime = System.currentTimeMillis();
+        this.dir = strategy.open(Paths.get(indexPath));
+        this.loadMillis = System.currentTimeMillis() - startTime;
+
+        try {
+            this.manager = new SearcherManager(dir, searcherFactory(makeSimilarity(sim), searchExecutor));
+        } catch (IOException | RuntimeException e) {
+            dir.close();
+            throw e;
+        }
+        this.nrt = null;
+        this.ownsManager = true;
+        this.openMillis = System.currentTimeMillis() - startTime;
+        QueryStats.stop(QueryStats.Stage.OPEN, t);
+    }
+
+    /**
+     * Serves queries from the near-real-time searchers of {@code nrt}. {@link #refresh()} picks up
+     * uncommitted changes immediately; otherwise they appear within the index's max staleness.
+     * The index stays owned by the caller, and closing the session leaves it open.
+     */
+    public SearcherSession(NrtIndex nrt) {
+        this.indexPath = nrt.getIndexPath();
+        this.stopPath = nrt.getStopPath();
+        this.sim = nrt.getSim();
+        this.strategy = nrt.getDirectoryStrategy();
+        this.dir = nrt.getDirectory();
+        this.loadMillis = 0;
+        this.openMillis = 0;
+        this.manager = nrt.getManager();
+        this.nrt = null;
+        this.ownsManager = false;
+    }
+
+    /**
+     * Serves queries from near-real-time searchers of {@code nrt} that score with {@code sim} and
+     * parse questions with the stopwords of {@code stopPath}. Unless both are those of the index,
+     * the session opens its own searchers over the index's writer, refreshed together with the
+     * index's own; closing the session closes them and leaves the index open.
+     */
+    public SearcherSession(NrtIndex nrt, String stopPath, String sim) throws IOException {
+        this.indexPath = nrt.getIndexPath();
+        this.stopPath = stopPath;
+        this.sim = sim;
+        this.strategy = nrt.getDirectoryStrategy();
+        this.dir = nrt.getDirectory();
+        this.loadMillis = 0;
+        if (stopPath.equals(nrt.getStopPath()) && sim.equals(nrt.getSim())) {
+            this.manager = nrt.getManager();
+            this.nrt = null;
+        } else {
+            this.manager = nrt.openManager(searcherFactory(makeSimilarity(sim), null));
+            this.nrt = nrt;
+        }
+        this.openMillis = 0;
+        this.ownsManager = false;
+    }
+
+    /** Returns a factory of searchers scoring with {@code similarity}, with paragraph-only statistics on a {@link BlockIndex}. */
+    static SearcherFactory searcherFactory(final Similarity similarity, final ExecutorService searchExecutor) {
+        return new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+                IndexSearcher searcher = BlockIndex.isBlockIndex(reader)
+                        ? new BlockIndex.Searcher(reader, searchExecutor)
+                        : new IndexSearcher(reader, searchExecutor);
+                searcher.setSimilarity(similarity);
+                return searcher;
+            }
+        };
+    }
+
+    /**
+     * Returns the similarity named {@code sim}: "TFIDF", "BM25" or "BM25:k1:b" for BM25 with
+     * the given parameters. Anything else is BM25.
+     *
+     * @throws IllegalArgumentException if "BM25:" is not followed by two numbers
+     */
+    public static Similarity makeSimilarity(String sim) {
+        if (sim.equals("TFIDF"))
+            return new ClassicSimilarity();
+        else if (sim.equals("BM25"))
+            return new BM25Similarity();
+        else if (sim.startsWith("BM25:")) {
+            String[] params = sim.split(":");
+            if (params.length != 3)
+                throw new IllegalArgumentException("expected BM25:k1:b, got " + sim);
+            try {
+                return new BM25Similarity(Float.parseFloat(params[1]), Float.parseFloat(params[2]));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("expected BM25:k1:b, got " + sim, e);
+            }
+        }
+        else
+            return new BM25Similarity();
+    }
+
+    public String getIndexPath() {
+        return indexPath;
+    }
+
+    public String getSim() {
+        return sim;
+    }
+
+    public String getStopPath() {
+        return stopPath;
+    }
+
+    public DirectoryStrategy getDirectoryStrategy() {
+        return strategy;
+    }
+
+    /** Returns how long opening the directory took, including the copy for {@link DirectoryStrategy#RAM}. */
+    public long getLoadMillis() {
+        return loadMillis;
+    }
+
+    /** Returns how long the constructor took: opening the directory and the first reader. */
+    public long getOpenMillis() {
+        return openMillis;
+    }
+
+    Directory getDirectory() {
+        return dir;
+    }
+
+    /** Returns the heap bytes of a RAM copy, or the on-disk size of the index otherwise. */
+    public long getDirectoryBytes() throws IOException {
+        return DirectoryStrategy.sizeOf(dir);
+    }
+
+    /** Returns the shared analyzer for this session's stopword file, see {@link AnalyzerRegistry}. */
+    public Analyzer getAnalyzer() {
+        long t = QueryStats.start(QueryStats.Stage.STOPWORDS);
+        Analyzer analyzer = AnalyzerRegistry.get(stopPath);
+        QueryStats.stop(QueryStats.Stage.STOPWORDS, t);
+        return analyzer;
+    }
+
+    /** Puts {@code cache} in front of {@link #query} and {@link #queryHits}; null disables caching. */
+    public void setResultCache(QueryCache cache) {
+        this.cache = cache;
+    }
+
+    public QueryCache getResultCache() {
+        return cache;
+    }
+
+    /**
+     * Preloads the index files if {@code preload} and replays {@code questions} before serving,
+     * see {@link Warmup}.
+     */
+    public Warmup warmUp(boolean preload, List<String> questions, int numResult) throws Exception {
+        return Warmup.run(this, preload, questions, numResult);
+    }
+
+    /** Returns the current searcher; every call must be paired with {@link #release(IndexSearcher)}. */
+    public IndexSearcher acquire() throws IOException {
+        return manager.acquire();
+    }
+
+    public void release(IndexSearcher searcher) throws IOException {
+        manager.release(searcher);
+    }
+
+    /** Reopens the reader if the index has new commits; returns true if a new searcher is in use. */
+    public boolean refresh() throws IOException {
+        long t = QueryStats.start(QueryStats.Stage.OPEN);
+        boolean refreshed = manager.maybeRefresh();
+        QueryStats.stop(QueryStats.Stage.OPEN, t);
+        return refreshed;
+    }
+
+    /** Parses a raw question against "contents", the same way {@link IrqaQuery#query} does. */
+    public Query parse(String question) throws Exception {
+        QueryParser parser = new QueryParser("contents", getAnalyzer());
+        long t = QueryStats.start(QueryStats.Stage.PARSE);
+        Query query = parser.parse(QueryParser.escape(question));
+        QueryStats.stop(QueryStats.Stage.PARSE, t);
+        return query;
+    }
+
+    public List<Document> query(String question, int numResult) throws Exception {
+        return docs(cached("docs", question, null, numResult));
+    }
+
+    public List<Document> search(Query query, int numResult) throws IOException {
+        IndexSearcher searcher = acquire();
+        try {
+            return docs(searcher, search(searcher, query, numResult), numResult);
+        } finally {
+            release(searcher);
+        }
+    }
+
+    /** Like {@link #query} but returns only docids and scores, see {@link TopHits}. */
+    public TopHits queryHits(String question, int numResult) throws Exception {
+        return (TopHits) cached("hits", question, null, numResult);
+    }
+
+    /** Returns true if the current searcher is over a {@link BlockIndex}, so {@link #queryBlocks} can be used. */
+    public boolean isBlockIndex() throws IOException {
+        IndexSearcher searcher = acquire();
+        try {
+            return searcher instanceof BlockIndex.Searcher;
+        } finally {
+            release(searcher);
+        }
+    }
+
+    /**
+     * Like {@link #queryHits} over an index written with {@link luceneInterface#indexBlock}: every
+     * hit comes with the stored sentences of its paragraph, see {@link BlockHits}.
+     *
+     * @throws IllegalStateException if the index has no blocks
+     */
+    public BlockHits queryBlocks(String question, int numResult) throws Exception {
+        return (BlockHits) cached("blocks", question, null, numResult);
+    }
+
+    /**
+     * Like {@link #queryHits}, adding {@code weight} times each paragraph's static rank to its
+     * score and cutting segments short once the top hits are settled, see {@link StaticRankSearch}.
+     * The result cache is not used.
+     */
+    public TopHits queryRanked(String question, int numResult, float weight) throws Exception {
+        return searchRanked(parse(question), numResult, weight);
+    }
+
+    public TopHits searchRanked(Query query, int numResult, float weight) throws IOException {
+        IndexSearcher searcher = acquire();
+        try {
+            long t = QueryStats.start(QueryStats.Stage.SEARCH);
+            TopDocs results = new StaticRankSearch(weight).search(searcher, query, numResult);
+            QueryStats.stop(QueryStats.Stage.SEARCH, t);
+            return hits(searcher, results, numResult);
+        } finally {
+            release(searcher);
+        }
+    }
+
+    /**
+     * Scores {@code question} under every similarity in {@code sims} in one pass over the postings,
+     * see {@link MultiSimilaritySearch}. The result cache is not used.
+     */
+    public TopHits[] queryHits(String question, int numResult, Similarity... sims) throws Exception {
+        return searchHits(parse(question), numResult, sims);
+    }
+
+    public TopHits[] searchHits(Query query, int numResult, Similarity... sims) throws IOException {
+        IndexSearcher searcher = acquire();
+        try {
+            long t = QueryStats.start(QueryStats.Stage.SEARCH);
+            TopHits[] hits = new MultiSimilaritySearch(sims).search(searcher, query, numResult);
+            QueryStats.stop(QueryStats.Stage.SEARCH, t);
+            return hits;
+        } finally {
+            release(searcher);
+        }
+    }
+
+    /**
+     * Searches {@code query}, going through the result cache if one is set.
+     *
+     * @param kind     "docs" for a {@code List<Document>}, "blocks" for {@link BlockHits}, or any
+     *                 other tag for {@link TopHits};
+     *                 it must differ between callers that build different queries for the same question
+     * @param query    the query built from {@code question}, or null to use {@link #parse};
+     *                 a prebuilt query is cached under its own string form
+     */
+    Object cached(String kind, String question, Query query, int numResult) throws Exception {
+        QueryCache cache = this.cache;
+        IndexSearcher searcher = acquire();
+        try {
+            String key = null;
+            if (cache != null) {
+                Analyzer analyzer = getAnalyzer();
+                long t = QueryStats.start(QueryStats.Stage.PARSE);
+                // a prebuilt query is not necessarily a function of the analyzed tokens, so it keys itself
+                List<String> tokens = query == null
+                        ? AnalyzerRegistry.analyze(analyzer, "contents", question)
+                        : Collections.singletonList(query.toString());
+                key = QueryCache.key(kind, indexPath, searcher.getIndexReader(), sim, numResult, tokens);
+                QueryStats.stop(QueryStats.Stage.PARSE, t);
+                Object value = cache.get(key);
+                if (value != null)
+                    return value;
+            }
+
+            if (query == null)
+                query = parse(question);
+            TopDocs results = search(searcher, query, numResult);
+            Object value;
+            if (kind.equals("docs"))
+                value = Collections.unmodifiableList(docs(searcher, results, numResult));
+            else if (kind.equals("blocks"))
+                value = blocks(searcher, results, numResult);
+            else
+                value = hits(searcher, results, numResult);
+
+            if (cache != null)
+                cache.put(key, value);
+            return value;
+        } finally {
+            release(searcher);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Document> docs(Object value) {
+        return (List<Document>) value;
+    }
+
+    private static TopDocs search(IndexSearcher searcher, Query query, int numResult) throws IOException {
+        long t = QueryStats.start(QueryStats.Stage.SEARCH);
+        TopDocs results = searcher.search(query, numResult);
+        QueryStats.stop(QueryStats.Stage.SEARCH, t);
+        return results;
+    }
+
+    private static List<Document> docs(IndexSearcher searcher, TopDocs results, int numResult) throws IOException {
+        long t = QueryStats.start(QueryStats.Stage.FETCH);
+        ScoreDoc[] hits = results.scoreDocs;
+        List<Document> docs = new ArrayList<Document>();
+
+        int end = Math.min(results.totalHits, numResult);
+        for (int i = 0; i < end; i++) {
+            docs.add(searcher.doc(hits[i].doc));
+        }
+        QueryStats.stop(QueryStats.Stage.FETCH, t);
+        return docs;
+    }
+
+    private static TopHits hits(IndexSearcher searcher, TopDocs results, int numResult) throws IOException {
+        long t = QueryStats.start(QueryStats.Stage.FETCH);
+        TopHits hits = TopHits.from(searcher, results, numResult);
+        QueryStats.stop(QueryStats.Stage.FETCH, t);
+        return hits;
+    }
+
+    private static BlockHits blocks(IndexSearcher searcher, TopDocs results, int numResult) throws IOException {
+        long t = QueryStats.start(QueryStats.Stage.FETCH);
+        BlockHits hits = BlockHits.from(searcher, results, numResult);
+        QueryStats.stop(QueryStats.Stage.FETCH, t);
+        return hits;
+    }
+
+    public TopHits searchHits(Query query, int numResult) throws IOException {
+        IndexSearcher searcher = acquire();
+        try {
+            return hits(searcher, search(searcher, query, numResult), numResult);
+        } finally {
+            release(searcher);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (nrt != null)
+            nrt.closeManager(manager);
+        if (!ownsManager)
+            return;
+        try {
+            manager.close();
+        } finally {
+            dir.close();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only, memory-mapped docid to sentences lookup built from {@code wikilookup_clean_sentence.json}.
+ * <p/>
+ * File layout (big-endian):
+ * <pre>
+ *   header   int magic, int version, int numKeys, int numSlots, long tableOffset, long dataEnd
+ *   records  int keyLength, key bytes, int numSentences, (int length, sentence bytes)*
+ *   table    numSlots longs, the offset of a record or 0 for an empty slot
+ * </pre>
+ * Strings are UTF-8. The table is open addressing with linear probing over a 64-bit FNV-1a
+ * hash of the key bytes. Records never cross a {@link #CHUNK_SIZE} boundary, so the data
+ * region is mapped as a few chunks and each sentence can be returned as a zero-copy slice.
+ * Opening the store only maps the file; nothing is read onto the heap.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class SentenceStore implements Closeable {
+    static final int MAGIC = 0x53454e54;  // "SENT"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int CHUNK_BITS = 30;
+    static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+    private final RandomAccessFile file;
+    private final ByteBuffer[] chunks;
+    private final LongBuffer table;
+    private final int numKeys;
+    private final int mask;
+
+    private SentenceStore(RandomAccessFile file) throws IOException {
+        this.file = file;
+        FileChannel channel = file.getChannel();
+
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC)
+            throw new IOException("not a sentence store");
+        int version = header.getInt();
+        if (version != VERSION)
+            throw new IOException("unsupported sentence store version: " + version);
+        numKeys = header.getInt();
+        int numSlots = header.getInt();
+        long tableOffset = header.getLong();
+        long dataEnd = header.getLong();
+        mask = numSlots - 1;
+
+        table = channel.map(FileChannel.MapMode.READ_ONLY, tableOffset, numSlots * 8L).asLongBuffer();
+        chunks = new ByteBuffer[(int) ((dataEnd + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+        for (int c = 0; c < chunks.length; c++) {
+            long start = (long) c << CHUNK_BITS;
+            chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, dataEnd - start));
+        }
+    }
+
+    public static SentenceStore open(String filename) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+        try {
+            return new SentenceStore(file);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Converts a JSON object of docid to sentence array into a store. Only the keys and their
+     * record offsets are kept on the heap; the sentences are streamed. A repeated key keeps
+     * its last value, as it would in a parsed {@code JSONObject}.
+     *
+     * @return the number of docids written
+     */
+    public static int convert(String jsonFilename, String storeFilename) throws IOException {
+        Map<String, Long> offsets = new LinkedHashMap<>();
+        long position = HEADER_SIZE;
+
+        try (JsonStream lookup = JsonStream.open(jsonFilename);
+             RandomAccessFile raf = new RandomAccessFile(storeFilename, "rw")) {
+            raf.setLength(0);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(raf.getFD()), 1 << 16));
+            out.write(new byte[HEADER_SIZE]);
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream record = new DataOutputStream(buffer);
+            while (lookup.hasNext()) {
+                List<?> sentences = (List<?>) lookup.next();
+                String key = lookup.key();
+
+                buffer.reset();
+                writeBytes(record, key.getBytes(StandardCharsets.UTF_8));
+                record.writeInt(sentences == null ? 0 : sentences.size());
+                if (sentences != null) {
+                    for (Object sentence : sentences) {
+                        writeBytes(record, String.valueOf(sentence).getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+
+                int length = buffer.size();
+                if (length > CHUNK_SIZE)
+                    throw new IOException("record of " + key + " is larger than a chunk: " + length);
+                long room = CHUNK_SIZE - (position & (CHUNK_SIZE - 1));
+                if (length > room) {
+                    out.write(new byte[(int) room]);
+                    position += room;
+                }
+                buffer.writeTo(out);
+                offsets.put(key, position);
+                position += length;
+            }
+
+            long dataEnd = position;
+            int numSlots = Integer.highestOneBit(Math.max(2, offsets.size() * 2 - 1)) << 1;
+            if (numSlots <= 0 || numSlots > Integer.MAX_VALUE / 8)
+                throw new IOException("too many docids: " + offsets.size());
+            long[] slots = new long[numSlots];
+            for (Map.Entry<String, Long> e : offsets.entrySet()) {
+                int slot = slot(e.getKey().getBytes(StandardCharsets.UTF_8), numSlots - 1);
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & (numSlots - 1);
+                }
+                slots[slot] = e.getValue();
+            }
+            for (long offset : slots) {
+                out.writeLong(offset);
+            }
+            out.flush();
+
+            raf.seek(0);
+            raf.writeInt(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeInt(offsets.size());
+            raf.writeInt(numSlots);
+            raf.writeLong(dataEnd);
+            raf.writeLong(dataEnd);
+        }
+        return offsets.size();
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static int slot(byte[] key, int mask) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    public int size() {
+        return numKeys;
+    }
+
+    /** Returns the offset of the record of {@code docid}, or -1. */
+    private long find(String docid) {
+        byte[] key = docid.getBytes(StandardCharsets.UTF_8);
+        int slot = slot(key, mask);
+        long offset;
+        while ((offset = table.get(slot)) != 0) {
+            ByteBuffer chunk = chunks[(int) (offset >>> CHUNK_BITS)];
+            int p = (int) (offset & (CHUNK_SIZE - 1));
+            if (chunk.getInt(p) == key.length && equals(chunk, p + 4, key))
+                return offset;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static boolean equals(ByteBuffer chunk, int p, byte[] key) {
+        for (int i = 0; i < key.length; i++) {
+            if (chunk.get(p + i) != key[i])
+                return false;
+        }
+        return true;
+    }
+
+    public boolean contains(String docid) {
+        return find(docid) >= 0;
+    }
+
+    /**
+     * Returns the UTF-8 bytes of every sentence of {@code docid} as read-only slices of the
+     * mapped file, or null if the docid is unknown.
+     */
+    public List<ByteBuffer> getBytes(String docid) {
+        long offset = find(docid);
+        if (offset < 0)
+            return null;
+
+        ByteBuffer chunk = chunks[(int) (offset >>> CHUNK_BITS)];
+        int p = (int) (offset & (CHUNK_SIZE - 1));
+        p += 4 + chunk.getInt(p);
+        int count = chunk.getInt(p);
+        p += 4;
+
+        List<ByteBuffer> sentences = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = chunk.getInt(p);
+            p += 4;
+            ByteBuffer slice = chunk.duplicate();
+            slice.limit(p + length).position(p);
+            sentences.add(slice.slice());
+            p += length;
+        }
+        return Collections.unmodifiableList(sentences);
+    }
+
+    /** Returns the sentences of {@code docid} decoded to strings, or null if the docid is unknown. */
+    public List<String> get(String docid) {
+        List<ByteBuffer> bytes = getBytes(docid);
+        if (bytes == null)
+            return null;
+
+        List<String> sentences = new ArrayList<>(bytes.size());
+        for (ByteBuffer b : bytes) {
+            sentences.add(StandardCharsets.UTF_8.decode(b).toString());
+        }
+        return sentences;
+    }
+
+    /** Closes the file; the mappings are released once they are garbage collected. */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /** Usage: {@code SentenceStore wikilookup_clean_sentence.json wikilookup_clean_sentence.bin}. */
+    public static void main(String[] args) throws IOException {
+        long startTime = System.currentTimeMillis();
+        int numKeys = convert(args[0], args[1]);
+        System.out.format("%d docids, %f sec\n", numKeys, (System.currentTimeMillis() - startTime) / 1000.0);
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Iterator;
+
+/**
+ * Writer side of an index split into N shard directories {@code indexPath/shard_0 .. shard_N-1}.
+ * <p/>
+ * A document goes to shard {@link #shard(String, int)} of its docid, so updates and deletes by
+ * docid always reach the shard that holds it. Search the result with {@link ShardedSearcher}.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class ShardedIndex implements Closeable {
+    private final String indexPath;
+    private final Directory[] dirs;
+    private final IndexWriter[] writers;
+    private final BulkIndexer.FlushCounter flushCounter = new BulkIndexer.FlushCounter();
+
+    /**
+     * Opens or creates the shards of {@code indexPath}.
+     *
+     * @throws IllegalArgumentException if the index already exists with a different number of shards
+     */
+    public ShardedIndex(String indexPath, String stopPath, String sim, int numShards) throws IOException {
+        int existing = numShards(indexPath);
+        if (existing != 0 && existing != numShards)
+            throw new IllegalArgumentException(indexPath + " has " + existing + " shards, not " + numShards);
+
+        this.indexPath = indexPath;
+        this.dirs = new Directory[numShards];
+        this.writers = new IndexWriter[numShards];
+        Similarity similarity = SearcherSession.makeSimilarity(sim);
+        try {
+            for (int i = 0; i < numShards; i++) {
+                dirs[i] = FSDirectory.open(Paths.get(shardPath(indexPath, i)));
+                IndexWriterConfig iwc = new IndexWriterConfig(AnalyzerRegistry.get(stopPath));
+                iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+                iwc.setSimilarity(similarity);
+                iwc.setInfoStream(flushCounter);
+                writers[i] = new IndexWriter(dirs[i], iwc);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /** Returns the shard of {@code docid} among {@code numShards}. */
+    public static int shard(String docid, int numShards) {
+        int h = docid.hashCode();
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % numShards;
+    }
+
+    public static String shardPath(String indexPath, int shard) {
+        return Paths.get(indexPath, "shard_" + shard).toString();
+    }
+
+    /** Returns the number of consecutive shard directories under {@code indexPath}, 0 if there are none. */
+    public static int numShards(String indexPath) {
+        int n = 0;
+        while (new File(shardPath(indexPath, n)).isDirectory()) {
+            n++;
+        }
+        return n;
+    }
+
+    public String getIndexPath() {
+        return indexPath;
+    }
+
+    public int getNumShards() {
+        return writers.length;
+    }
+
+    public IndexWriter getWriter(int shard) {
+        return writers[shard];
+    }
+
+    private IndexWriter writerOf(String docid) {
+        return writers[shard(docid, writers.length)];
+    }
+
+    /** Adds a document laid out as by {@link luceneInterface#indexDoc} to the shard of its docid. */
+    public void addDocument(String docid, String... args) throws IOException {
+        writerOf(docid).addDocument(luceneInterface.makeDocument(docid, args));
+    }
+
+    public void updateDocument(String docid, String... args) throws IOException {
+        writerOf(docid).updateDocument(new Term("docid", docid), luceneInterface.makeDocument(docid, args));
+    }
+
+    public void deleteDocument(String docid) throws IOException {
+        writerOf(docid).deleteDocuments(new Term("docid", docid));
+    }
+
+    /** Indexes {@code docs} ({@code {docid, field, text, ...}}) from {@code numThreads} threads into all shards. */
+    public BulkIndexer.Report indexDocs(Iterator<String[]> docs, int numThreads) throws IOException {
+        return new BulkIndexer(writers, flushCounter, numThreads).index(docs);
+    }
+
+    public void commit() throws IOException {
+        for (IndexWriter writer : writers) {
+            writer.commit();
+        }
+    }
+
+    /** Commits and closes every shard. */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (int i = 0; i < writers.length; i++) {
+            try {
+                if (writers[i] != null)
+                    writers[i].close();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+            try {
+                if (dirs[i] != null)
+                    dirs[i].close();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+}
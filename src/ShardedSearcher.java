@@ -0,0 +1,318 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Searches the shards written by {@link ShardedIndex} in parallel and merges their top hits.
+ * <p/>
+ * Each shard is searched by a {@link ShardSearcher} whose term and collection statistics are
+ * the sums over all shards, so every shard scores with the IDF and average length of the
+ * whole corpus and BM25/TF-IDF scores equal those of one unsharded index. The sums for the
+ * terms of a query are computed once before the shards are searched, so they cost one term
+ * lookup per term and shard instead of one for every pair of shards. The per-shard top
+ * lists are combined with {@link TopDocs#merge}; equal scores are ordered by shard.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class ShardedSearcher implements Closeable {
+    private final String indexPath;
+    private final String stopPath;
+    private final String sim;
+    private final Directory[] dirs;
+    private final DirectoryReader[] readers;
+    private final ShardSearcher[] shards;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /** Global statistics of the terms and fields of one query. */
+    private static class QueryStatistics {
+        final Map<Term, TermStatistics> terms = new HashMap<>();
+        final Map<String, CollectionStatistics> fields = new HashMap<>();
+    }
+
+    /** Searcher whose statistics come from the whole sharded index. */
+    public static class ShardSearcher extends IndexSearcher {
+        private final ShardedSearcher parent;
+        /** precomputed sums for the query being searched, or null to sum on every call */
+        private final QueryStatistics stats;
+
+        ShardSearcher(IndexReader reader, ShardedSearcher parent) {
+            this(reader, parent, null);
+        }
+
+        private ShardSearcher(IndexReader reader, ShardedSearcher parent, QueryStatistics stats) {
+            super(reader);
+            this.parent = parent;
+            this.stats = stats;
+        }
+
+        @Override
+        public TermStatistics termStatistics(Term term, TermContext context) throws IOException {
+            TermStatistics global = stats == null ? null : stats.terms.get(term);
+            return global != null ? global : parent.termStatistics(term);
+        }
+
+        @Override
+        public CollectionStatistics collectionStatistics(String field) throws IOException {
+            CollectionStatistics global = stats == null ? null : stats.fields.get(field);
+            return global != null ? global : parent.collectionStatistics(field);
+        }
+
+        /** Returns the statistics of this shard alone. */
+        TermStatistics localTermStatistics(Term term) throws IOException {
+            return super.termStatistics(term, TermContext.build(getTopReaderContext(), term));
+        }
+
+        CollectionStatistics localCollectionStatistics(String field) throws IOException {
+            return super.collectionStatistics(field);
+        }
+    }
+
+    /**
+     * @param executor runs the per-shard searches; if null, a pool with one thread per shard is
+     *                 created and shut down on {@link #close()}
+     */
+    public ShardedSearcher(String indexPath, String stopPath, String sim, ExecutorService executor) throws IOException {
+        int numShards = ShardedIndex.numShards(indexPath);
+        if (numShards == 0)
+            throw new IOException("no shards under " + indexPath);
+
+        this.indexPath = indexPath;
+        this.stopPath = stopPath;
+        this.sim = sim;
+        this.dirs = new Directory[numShards];
+        this.readers = new DirectoryReader[numShards];
+        this.shards = new ShardSearcher[numShards];
+
+        long t = QueryStats.start(QueryStats.Stage.OPEN);
+        Similarity similarity = SearcherSession.makeSimilarity(sim);
+        try {
+            for (int i = 0; i < numShards; i++) {
+                dirs[i] = FSDirectory.open(Paths.get(ShardedIndex.shardPath(indexPath, i)));
+                readers[i] = DirectoryReader.open(dirs[i]);
+                shards[i] = new ShardSearcher(readers[i], this);
+                shards[i].setSimilarity(similarity);
+            }
+        } catch (IOException e) {
+            closeShards();
+            throw e;
+        }
+        QueryStats.stop(QueryStats.Stage.OPEN, t);
+
+        this.ownsExecutor = executor == null;
+        this.executor = executor != null ? executor : Executors.newFixedThreadPool(numShards);
+    }
+
+    public String getIndexPath() {
+        return indexPath;
+    }
+
+    public String getStopPath() {
+        return stopPath;
+    }
+
+    public String getSim() {
+        return sim;
+    }
+
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    public ShardSearcher getShard(int shard) {
+        return shards[shard];
+    }
+
+    /** Returns the statistics of {@code term} summed over all shards. */
+    public TermStatistics termStatistics(Term term) throws IOException {
+        long docFreq = 0;
+        long totalTermFreq = 0;
+        for (ShardSearcher shard : shards) {
+            TermStatistics stats = shard.localTermStatistics(term);
+            docFreq += stats.docFreq();
+            totalTermFreq = sum(totalTermFreq, stats.totalTermFreq());
+        }
+        return new TermStatistics(term.bytes(), docFreq, totalTermFreq);
+    }
+
+    /** Returns the statistics of {@code field} summed over all shards. */
+    public CollectionStatistics collectionStatistics(String field) throws IOException {
+        long maxDoc = 0;
+        long docCount = 0;
+        long sumTotalTermFreq = 0;
+        long sumDocFreq = 0;
+        for (ShardSearcher shard : shards) {
+            CollectionStatistics stats = shard.localCollectionStatistics(field);
+            maxDoc += stats.maxDoc();
+            docCount = sum(docCount, stats.docCount());
+            sumTotalTermFreq = sum(sumTotalTermFreq, stats.sumTotalTermFreq());
+            sumDocFreq = sum(sumDocFreq, stats.sumDocFreq());
+        }
+        return new CollectionStatistics(field, maxDoc, docCount, sumTotalTermFreq, sumDocFreq);
+    }
+
+    /** Sums two statistics where -1 means "not available". */
+    private static long sum(long a, long b) {
+        return a == -1 || b == -1 ? -1 : a + b;
+    }
+
+    /** Parses a raw question against "contents", the same way {@link SearcherSession#parse} does. */
+    public Query parse(String question) throws Exception {
+        QueryParser parser = new QueryParser("contents", AnalyzerRegistry.get(stopPath));
+        long t = QueryStats.start(QueryStats.Stage.PARSE);
+        Query query = parser.parse(QueryParser.escape(question));
+        QueryStats.stop(QueryStats.Stage.PARSE, t);
+        return query;
+    }
+
+    /**
+     * Sums the statistics of every term of {@code query} and of their fields over all shards.
+     * The terms are those of the query rewritten against the first shard; a shard whose rewrite
+     * has other terms sums their statistics when it asks for them.
+     */
+    private QueryStatistics statistics(Query query) throws IOException {
+        // a plain searcher, so that extracting the terms does not ask for global statistics
+        IndexSearcher first = new IndexSearcher(readers[0]);
+        first.setQueryCache(null);
+        Set<Term> terms = new HashSet<>();
+        first.createWeight(first.rewrite(query), false).extractTerms(terms);
+
+        QueryStatistics stats = new QueryStatistics();
+        for (Term term : terms) {
+            stats.terms.put(term, termStatistics(term));
+            if (!stats.fields.containsKey(term.field()))
+                stats.fields.put(term.field(), collectionStatistics(term.field()));
+        }
+        return stats;
+    }
+
+    /**
+     * Searches every shard in parallel and merges the top hits; the {@link ScoreDoc#shardIndex} of
+     * each hit tells which shard its doc belongs to.
+     */
+    public TopDocs search(final Query query, final int numResult) throws IOException {
+        long t = QueryStats.start(QueryStats.Stage.SEARCH);
+        QueryStatistics stats = statistics(query);
+        List<Future<TopDocs>> futures = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            final ShardSearcher shard = new ShardSearcher(readers[i], this, stats);
+            shard.setSimilarity(shards[i].getSimilarity(true));
+            futures.add(executor.submit(new Callable<TopDocs>() {
+                @Override
+                public TopDocs call() throws Exception {
+                    return shard.search(query, numResult);
+                }
+            }));
+        }
+
+        TopDocs[] results = new TopDocs[shards.length];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                results[i] = futures.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        TopDocs merged = TopDocs.merge(numResult, results);
+        QueryStats.stop(QueryStats.Stage.SEARCH, t);
+        return merged;
+    }
+
+    public TopHits searchHits(Query query, int numResult) throws IOException {
+        TopDocs results = search(query, numResult);
+
+        long t = QueryStats.start(QueryStats.Stage.FETCH);
+        ScoreDoc[] hits = results.scoreDocs;
+        int end = Math.min(hits.length, numResult);
+        String[] docids = new String[end];
+        float[] scores = new float[end];
+        for (int i = 0; i < end; i++) {
+            ShardSearcher shard = shards[hits[i].shardIndex];
+            List<LeafReaderContext> leaves = shard.getIndexReader().leaves();
+            docids[i] = TopHits.docid(shard, leaves, hits[i].doc);
+            scores[i] = hits[i].score;
+        }
+        QueryStats.stop(QueryStats.Stage.FETCH, t);
+        return new TopHits(docids, scores, results.totalHits);
+    }
+
+    public TopHits queryHits(String question, int numResult) throws Exception {
+        return searchHits(parse(question), numResult);
+    }
+
+    private void closeShards() throws IOException {
+        IOException failure = null;
+        for (int i = 0; i < shards.length; i++) {
+            try {
+                if (readers[i] != null)
+                    readers[i].close();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+            try {
+                if (dirs[i] != null)
+                    dirs[i].close();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ownsExecutor)
+            executor.shutdown();
+        closeShards();
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FloatDocValuesField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LogByteSizeMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * One-shot build of an index whose documents are ordered by a static rank, highest first.
+ * <p/>
+ * {@link #add} spills every document's fields to a temporary file and keeps only its rank and
+ * file offset on the heap, 16 bytes per document, so corpora larger than the heap can be
+ * built. {@link #finish} sorts those by rank and reads the documents back in that order,
+ * writing them from a single thread, so every flushed segment is sorted. The log merge policy
+ * only merges adjacent segments, which keeps merged segments sorted too. The rank is stored in
+ * the {@link StaticRankSearch#FIELD} doc-values field for {@link StaticRankSearch}.
+ * <pre>
+ *   StaticRankBuild build = new StaticRankBuild(index, stopwords, "BM25");
+ *   build.add(rank, docid, "contents", text);
+ *   build.finish();
+ * </pre>
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class StaticRankBuild implements Closeable {
+    private final Directory dir;
+    private final IndexWriter writer;
+    private final Path spillPath;
+    private final DataOutputStream spill;
+    /** per document in order of {@link #add}: rank and sequence number packed by {@link #sortKey} */
+    private long[] keys = new long[1024];
+    /** per document in order of {@link #add}: offset of its record in the spill file */
+    private long[] offsets = new long[1024];
+    private int numDocs = 0;
+    private long spillSize = 0;
+    private boolean finished = false;
+
+    /** Creates, or overwrites, the index at {@code indexPath}. */
+    public StaticRankBuild(String indexPath, String stopPath, String sim) throws IOException {
+        this.dir = FSDirectory.open(Paths.get(indexPath));
+
+        IndexWriterConfig iwc = new IndexWriterConfig(AnalyzerRegistry.get(stopPath));
+        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        iwc.setSimilarity(SearcherSession.makeSimilarity(sim));
+        iwc.setMergePolicy(new LogByteSizeMergePolicy());
+        iwc.setCommitOnClose(false);
+
+        try {
+            this.writer = new IndexWriter(dir, iwc);
+        } catch (IOException e) {
+            dir.close();
+            throw e;
+        }
+        try {
+            this.spillPath = Files.createTempFile("static_rank", ".spill");
+            this.spill = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillPath.toFile()), 1 << 16));
+        } catch (IOException e) {
+            writer.rollback();
+            dir.close();
+            throw e;
+        }
+    }
+
+    /** Spills a document laid out as by {@link luceneInterface#indexDoc}, with static rank {@code rank}. */
+    public void add(float rank, String docid, String... args) throws IOException {
+        if (Float.isNaN(rank))
+            throw new IllegalArgumentException("rank of " + docid + " is NaN");
+        if (finished)
+            throw new IllegalStateException("already finished");
+        if (numDocs == keys.length) {
+            keys = Arrays.copyOf(keys, numDocs * 2);
+            offsets = Arrays.copyOf(offsets, numDocs * 2);
+        }
+        keys[numDocs] = sortKey(rank, numDocs);
+        offsets[numDocs] = spillSize;
+        numDocs++;
+
+        byte[][] strings = new byte[args.length + 1][];
+        int length = 4;
+        strings[0] = docid.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < args.length; i++) {
+            strings[i + 1] = args[i].getBytes(StandardCharsets.UTF_8);
+        }
+        for (byte[] b : strings) {
+            length += 4 + b.length;
+        }
+        // record: length of the rest, number of strings, (length, UTF-8 bytes) per string
+        spill.writeInt(length);
+        spill.writeInt(strings.length);
+        for (byte[] b : strings) {
+            spill.writeInt(b.length);
+            spill.write(b);
+        }
+        spillSize += 4 + length;
+    }
+
+    /**
+     * Packs {@code rank} and {@code seq} into a long whose natural order is by rank, highest
+     * first, then by sequence number, as {@link Float#compare} orders ranks.
+     */
+    private static long sortKey(float rank, int seq) {
+        int bits = Float.floatToIntBits(rank);
+        // flip the magnitude of negatives so the ints order like the floats
+        int ordered = bits ^ ((bits >> 31) & 0x7fffffff);
+        return ((long) ~ordered << 32) | seq;
+    }
+
+    /**
+     * Writes the spilled documents in rank order, ties in the order they were added, then
+     * commits and closes the index.
+     *
+     * @return the number of documents written
+     */
+    public int finish() throws IOException {
+        try {
+            spill.close();
+            long[] order = Arrays.copyOf(keys, numDocs);
+            Arrays.sort(order);
+            try (RandomAccessFile in = new RandomAccessFile(spillPath.toFile(), "r")) {
+                byte[] record = new byte[1 << 12];
+                for (long key : order) {
+                    int seq = (int) key;
+                    in.seek(offsets[seq]);
+                    int length = in.readInt();
+                    if (record.length < length)
+                        record = new byte[Integer.highestOneBit(length) << 1];
+                    in.readFully(record, 0, length);
+                    String[] strings = readStrings(record, length);
+
+                    Document doc = luceneInterface.makeDocument(strings[0], Arrays.copyOfRange(strings, 1, strings.length));
+                    float rank = Float.intBitsToFloat(orderedToBits(~(int) (key >>> 32)));
+                    doc.add(new FloatDocValuesField(StaticRankSearch.FIELD, rank));
+                    writer.addDocument(doc);
+                }
+            }
+            writer.commit();
+            finished = true;
+            return numDocs;
+        } finally {
+            close();
+        }
+    }
+
+    /** Inverse of the int mapping in {@link #sortKey}. */
+    private static int orderedToBits(int ordered) {
+        return ordered ^ ((ordered >> 31) & 0x7fffffff);
+    }
+
+    private static String[] readStrings(byte[] record, int length) {
+        ByteBuffer in = ByteBuffer.wrap(record, 0, length);
+        String[] strings = new String[in.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            int n = in.getInt();
+            strings[i] = new String(record, in.position(), n, StandardCharsets.UTF_8);
+            in.position(in.position() + n);
+        }
+        return strings;
+    }
+
+    /** Closes the index and deletes the spill file; without {@link #finish} nothing is committed. */
+    @Override
+    public void close() throws IOException {
+        try {
+            spill.close();
+            if (!finished)
+                writer.rollback();
+            else
+                writer.close();
+        } finally {
+            try {
+                Files.deleteIfExists(spillPath);
+            } finally {
+                dir.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.WeakHashMap;
+
+/**
+ * Top-k search that adds a weighted static rank to the query score and stops collecting a
+ * segment once no later document of it can enter the top k.
+ * <p/>
+ * The score of a document is its query score plus {@code weight} times its rank, read from
+ * the {@link #FIELD} doc-values field written by {@link StaticRankBuild} (0 if missing). In a
+ * segment whose documents are sorted by rank, highest first, no later document can score
+ * above the query's maximum score plus the weighted rank of the current one; once that bound
+ * is below the k-th best score the rest of the segment is skipped. The maximum query score is
+ * only known for BM25 over term queries, booleans of them and boosts; other queries and
+ * similarities, and unsorted segments, are collected in full, with the same results.
+ * <p/>
+ * When a segment is cut short, the returned {@code totalHits} only counts the documents collected.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class StaticRankSearch {
+    /** doc-values field holding the static rank, a float */
+    public static final String FIELD = "static_rank";
+
+    /** slack on the maximum score, so float rounding of the real sums cannot exceed it */
+    private static final float BOUND_SLACK = 1.0001f;
+
+    private static final Comparator<ScoreDoc> WORST_FIRST = new Comparator<ScoreDoc>() {
+        @Override
+        public int compare(ScoreDoc a, ScoreDoc b) {
+            if (a.score != b.score)
+                return Float.compare(a.score, b.score);
+            return Integer.compare(b.doc, a.doc);
+        }
+    };
+
+    /** whether each segment core is sorted by rank; checked once per segment */
+    private static final Map<Object, Boolean> sortedSegments =
+            Collections.synchronizedMap(new WeakHashMap<Object, Boolean>());
+
+    private final float weight;
+
+    /** @param weight how much one unit of static rank adds to the score; must not be negative */
+    public StaticRankSearch(float weight) {
+        if (!(weight >= 0))
+            throw new IllegalArgumentException("weight must be >= 0: " + weight);
+        this.weight = weight;
+    }
+
+    public TopDocs search(IndexSearcher searcher, Query query, int numResult) throws IOException {
+        // without a rank, the k-th best can never beat the maximum query score
+        float bound = weight > 0 ? maxScore(searcher, query) : Float.POSITIVE_INFINITY;
+        Collector collector = new Collector(Math.max(1, numResult), bound);
+        searcher.search(query, collector);
+        return collector.topDocs();
+    }
+
+    /**
+     * Returns an upper bound on the score of any document for {@code query}, or infinity if
+     * none is known. A BM25 term clause scores at most {@code boost * idf * (k1 + 1)}, where
+     * {@code boost} is the product of the boosts above it; BM25 ignores the query norm and its
+     * coord is 1, so a boolean scores at most the sum of its scoring clauses.
+     */
+    static float maxScore(IndexSearcher searcher, Query query) throws IOException {
+        Similarity sim = searcher.getSimilarity(true);
+        if (!(sim instanceof BM25Similarity))
+            return Float.POSITIVE_INFINITY;
+        double bound = maxScore(searcher, (BM25Similarity) sim, searcher.rewrite(query), 1);
+        return (float) bound * BOUND_SLACK;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static double maxScore(IndexSearcher searcher, BM25Similarity sim, Query query, double boost)
+            throws IOException {
+        boost *= query.getBoost();
+        if (!(boost >= 0))
+            return Double.POSITIVE_INFINITY;
+        if (query instanceof BoostQuery) {
+            BoostQuery boosted = (BoostQuery) query;
+            return maxScore(searcher, sim, boosted.getQuery(), boost * boosted.getBoost());
+        } else if (query instanceof TermQuery) {
+            Term term = ((TermQuery) query).getTerm();
+            TermContext context = TermContext.build(searcher.getTopReaderContext(), term);
+            // a term in no document never scores, and would only loosen the bound
+            if (context.docFreq() == 0)
+                return 0;
+            Similarity.SimWeight w = sim.computeWeight(searcher.collectionStatistics(term.field()),
+                    searcher.termStatistics(term, context));
+            // BM25's value for normalization is the squared idf
+            return boost * Math.sqrt(w.getValueForNormalization()) * (sim.getK1() + 1);
+        } else if (query instanceof BooleanQuery) {
+            double bound = 0;
+            for (BooleanClause clause : (BooleanQuery) query) {
+                if (clause.isScoring())
+                    bound += maxScore(searcher, sim, clause.getQuery(), boost);
+            }
+            return bound;
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /** Returns true if the ranks of {@code reader} never increase with the doc id. */
+    static boolean isSorted(LeafReader reader) throws IOException {
+        Object key = reader.getCoreCacheKey();
+        Boolean sorted = sortedSegments.get(key);
+        if (sorted == null) {
+            sorted = true;
+            NumericDocValues ranks = reader.getNumericDocValues(FIELD);
+            if (ranks != null) {
+                float previous = Float.POSITIVE_INFINITY;
+                for (int doc = 0; doc < reader.maxDoc() && sorted; doc++) {
+                    float rank = Float.intBitsToFloat((int) ranks.get(doc));
+                    sorted = rank <= previous;
+                    previous = rank;
+                }
+            }
+            sortedSegments.put(key, sorted);
+        }
+        return sorted;
+    }
+
+    private class Collector extends SimpleCollector {
+        private final int numResult;
+        private final float maxScore;
+        private final PriorityQueue<ScoreDoc> queue;
+        private int totalHits = 0;
+        private Scorer scorer;
+        private NumericDocValues ranks;
+        private int docBase;
+        private boolean canTerminate;
+
+        Collector(int numResult, float maxScore) {
+            this.numResult = numResult;
+            this.maxScore = maxScore;
+            this.queue = new PriorityQueue<>(numResult, WORST_FIRST);
+        }
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+            ranks = weight > 0 ? context.reader().getNumericDocValues(FIELD) : null;
+            docBase = context.docBase;
+            canTerminate = !Float.isInfinite(maxScore) && isSorted(context.reader());
+        }
+
+        @Override
+        public void setScorer(Scorer scorer) {
+            this.scorer = scorer;
+        }
+
+        @Override
+        public boolean needsScores() {
+            return true;
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            float weighted = ranks == null ? 0 : weight * Float.intBitsToFloat((int) ranks.get(doc));
+            float score = scorer.score() + weighted;
+            totalHits++;
+            if (queue.size() < numResult) {
+                queue.add(new ScoreDoc(docBase + doc, score));
+                return;
+            }
+            // docs arrive in increasing id order, so a tie with the k-th best loses
+            ScoreDoc worst = queue.peek();
+            if (score > worst.score) {
+                queue.poll();
+                worst.doc = docBase + doc;
+                worst.score = score;
+                queue.add(worst);
+                worst = queue.peek();
+            }
+            // later docs of this segment rank no higher
+            if (canTerminate && maxScore + weighted < worst.score)
+                throw new CollectionTerminatedException();
+        }
+
+        TopDocs topDocs() {
+            ScoreDoc[] top = new ScoreDoc[queue.size()];
+            for (int i = top.length - 1; i >= 0; i--) {
+                top[i] = queue.poll();
+            }
+            float best = top.length == 0 ? Float.NaN : top[0].score;
+            return new TopDocs(totalHits, top, best);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Top-k result projected to parallel docid and score arrays.
+ * <p/>
+ * Docids are read from the "docid" doc-values field written by
+ * {@link luceneInterface#indexDoc}, so no stored fields are decoded. Segments written
+ * before that field existed fall back to the stored "docid".
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class TopHits {
+    private static final Set<String> DOCID_FIELD = Collections.singleton("docid");
+
+    public final String[] docids;
+    public final float[] scores;
+    public final int totalHits;
+
+    public TopHits(String[] docids, float[] scores, int totalHits) {
+        this.docids = docids;
+        this.scores = scores;
+        this.totalHits = totalHits;
+    }
+
+    public int size() {
+        return docids.length;
+    }
+
+    /** Returns the rank (0-based) of {@code docid}, or -1 if it is not in the hits. */
+    public int indexOf(String docid) {
+        for (int i = 0; i < docids.length; i++) {
+            if (docids[i].equals(docid))
+                return i;
+        }
+        return -1;
+    }
+
+    public boolean contains(String docid) {
+        return indexOf(docid) >= 0;
+    }
+
+    public static TopHits from(IndexSearcher searcher, TopDocs results, int numResult) throws IOException {
+        ScoreDoc[] hits = results.scoreDocs;
+        int end = Math.min(hits.length, numResult);
+        String[] docids = new String[end];
+        float[] scores = new float[end];
+
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        for (int i = 0; i < end; i++) {
+            docids[i] = docid(searcher, leaves, hits[i].doc);
+            scores[i] = hits[i].score;
+        }
+        return new TopHits(docids, scores, results.totalHits);
+    }
+
+    static String docid(IndexSearcher searcher, List<LeafReaderContext> leaves, int doc) throws IOException {
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+        SortedDocValues values = leaf.reader().getSortedDocValues("docid");
+        if (values != null)
+            return values.get(doc - leaf.docBase).utf8ToString();
+        return searcher.doc(doc, DOCID_FIELD).get("docid");
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2016, Emory University
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.List;
+
+/**
+ * Warm-up of a freshly opened {@link SearcherSession}, and the report of how long it took.
+ * <p/>
+ * The warm-up first reads every index file once, which pulls it into the page cache (or faults
+ * in the pages of an mmapped index), then replays sample questions until the JIT has compiled
+ * the query path. The replay bypasses the result cache, so it neither fills the cache with
+ * the questions that are measured next nor is served from it. The steady-state latency is
+ * taken over the second half of the replay.
+ *
+ * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
+ */
+public class Warmup {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** bytes read while preloading */
+    public final long preloadBytes;
+    public final long preloadMillis;
+    public final int questions;
+    public final long replayMillis;
+    /** from the start of the session's open to the end of the replay */
+    public final long readyMillis;
+    /** latency of the first replayed question, in milliseconds */
+    public final double firstMillis;
+    public final double steadyP50Millis;
+    public final double steadyP99Millis;
+
+    private Warmup(long preloadBytes, long preloadMillis, int questions, long replayMillis, long readyMillis,
+                   double firstMillis, double steadyP50Millis, double steadyP99Millis) {
+        this.preloadBytes = preloadBytes;
+        this.preloadMillis = preloadMillis;
+        this.questions = questions;
+        this.replayMillis = replayMillis;
+        this.readyMillis = readyMillis;
+        this.firstMillis = firstMillis;
+        this.steadyP50Millis = steadyP50Millis;
+        this.steadyP99Millis = steadyP99Millis;
+    }
+
+    /**
+     * Warms {@code session} up.
+     *
+     * @param preload   read every index file once before the replay
+     * @param questions raw questions to replay, each searched for its top {@code numResult}
+     */
+    public static Warmup run(SearcherSession session, boolean preload, List<String> questions,
+                             int numResult) throws Exception {
+        long startTime = System.currentTimeMillis();
+        long bytes = preload ? preload(session.getDirectory()) : 0;
+        long preloadMillis = System.currentTimeMillis() - startTime;
+
+        QueryStats.Histogram steady = new QueryStats.Histogram();
+        long first = 0;
+        startTime = System.currentTimeMillis();
+        for (int i = 0; i < questions.size(); i++) {
+            long t = System.nanoTime();
+            session.searchHits(session.parse(questions.get(i)), numResult);
+            t = System.nanoTime() - t;
+            if (i == 0)
+                first = t;
+            if (i >= questions.size() / 2)
+                steady.record(t);
+        }
+        long replayMillis = System.currentTimeMillis() - startTime;
+
+        return new Warmup(bytes, preloadMillis, questions.size(), replayMillis,
+                session.getOpenMillis() + preloadMillis + replayMillis,
+                first / 1e6, steady.percentile(0.50) / 1e6, steady.percentile(0.99) / 1e6);
+    }
+
+    /** Reads every file of {@code dir} sequentially and returns the number of bytes read. */
+    static long preload(Directory dir) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long bytes = 0;
+        for (String file : dir.listAll()) {
+            if (file.equals(IndexWriter.WRITE_LOCK_NAME))
+                continue;
+            IndexInput in;
+            try {
+                in = dir.openInput(file, IOContext.READONCE);
+            } catch (NoSuchFileException e) {
+                // deleted by a concurrent merge or commit since listAll
+                continue;
+            }
+            try {
+                long remaining = in.length();
+                while (remaining > 0) {
+                    int n = (int) Math.min(buffer.length, remaining);
+                    in.readBytes(buffer, 0, n);
+                    remaining -= n;
+                }
+                bytes += in.length();
+            } finally {
+                in.close();
+            }
+        }
+        return bytes;
+    }
+
+    @SuppressWarnings("unchecked")
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("preload_bytes", preloadBytes);
+        json.put("preload_ms", preloadMillis);
+        json.put("questions", questions);
+        json.put("replay_ms", replayMillis);
+        json.put("ready_ms", readyMillis);
+        json.put("first_ms", firstMillis);
+        json.put("steady_p50_ms", steadyP50Millis);
+        json.put("steady_p99_ms", steadyP99Millis);
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ready=%d ms (preload %d bytes in %d ms, %d questions in %d ms)\t"
+                        + "first=%.3f\tsteady p50=%.3f\tp99=%.3f ms",
+                readyMillis, preloadBytes, preloadMillis, questions, replayMillis,
+                firstMillis, steadyP50Millis, steadyP99Millis);
+    }
+}
@@ -23,31 +23,221 @@ import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.search.similarities.TFIDFSimilarity;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 
 import java.io.*;
 import java.nio.file.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Bonggun Shin ({@code bonggun.shin@emory.edu}).
  */
 public class luceneInterface {
     static  public IndexWriter writer;
+    static  public BulkIndexer.FlushCounter flushCounter;
+    static  private final ConcurrentMap<String, SearcherSession> sessions =
+            new ConcurrentHashMap<String, SearcherSession>();
+    static  private volatile QueryCache resultCache;
+    static  private volatile QueryBuilder queryShape =
+            new QueryBuilder(null, new String[]{"contents", "sec"}, null, 0);
+    static  private final ThreadLocal<QueryBuilder> queryBuilders = new ThreadLocal<QueryBuilder>();
+    /** workers of {@link #batchQuery}, shared by all calls; created on first use */
+    static  private volatile ExecutorService batchWorkers;
 
     public luceneInterface(){
     }
 
+    /**
+     * Opens a long-lived searcher session. The caller owns the session and must close it.
+     */
+    public static SearcherSession openSearcher(String indexPath, String stopPath, String sim) throws IOException {
+        return new SearcherSession(indexPath, stopPath, sim);
+    }
+
+    /**
+     * Opens a searcher session whose queries search segments in parallel on {@code searchExecutor}.
+     */
+    public static SearcherSession openSearcher(String indexPath, String stopPath, String sim,
+                                               ExecutorService searchExecutor) throws IOException {
+        return new SearcherSession(indexPath, stopPath, sim, searchExecutor);
+    }
+
+    /**
+     * Opens a searcher session over a directory opened with {@code strategy} and prints its
+     * load time and size.
+     */
+    public static SearcherSession openSearcher(String indexPath, String stopPath, String sim,
+                                               DirectoryStrategy strategy) throws IOException {
+        SearcherSession session = new SearcherSession(indexPath, stopPath, sim, strategy, null);
+        System.out.format("[openSearcher] %s %s: %d bytes, %d ms\n",
+                strategy, indexPath, session.getDirectoryBytes(), session.getLoadMillis());
+        return session;
+    }
+
+    /**
+     * Opens a searcher session, preloads its index files and replays the "question" field of the
+     * first {@code warmupQuestions} entries of {@code questionsPath} before returning it, see
+     * {@link Warmup}. Prints time-to-ready and the steady-state latency reached. With no warm-up
+     * questions, {@code questionsPath} is not read and may be null.
+     */
+    public static SearcherSession openWarmSearcher(String indexPath, String stopPath, String sim,
+                                                   String questionsPath, int warmupQuestions) throws Exception {
+        SearcherSession session = openSearcher(indexPath, stopPath, sim);
+        try {
+            List<String> questions = warmupQuestions > 0
+                    ? JsonStream.readField(questionsPath, "question", warmupQuestions)
+                    : Collections.<String>emptyList();
+            Warmup warmup = session.warmUp(true, questions, 5);
+            System.out.format("[warmUp] %s: %s\n", indexPath, warmup);
+        } catch (Exception e) {
+            session.close();
+            throw e;
+        }
+        return session;
+    }
+
+    /**
+     * Opens an index that can be updated while it is searched, see {@link NrtIndex}.
+     * The caller owns the index and must close it.
+     */
+    public static NrtIndex openNrtIndex(String indexPath, String stopPath, String sim,
+                                        double maxStaleSec) throws IOException {
+        return new NrtIndex(indexPath, stopPath, sim, maxStaleSec);
+    }
+
+    /**
+     * Opens a searcher session over the near-real-time searchers of {@code nrt}.
+     */
+    public static SearcherSession openSearcher(NrtIndex nrt) {
+        return new SearcherSession(nrt);
+    }
+
+    /**
+     * Opens a searcher session over the near-real-time searchers of {@code nrt} that scores with
+     * {@code sim} and parses with {@code stopPath}, whatever the index was opened with.
+     */
+    public static SearcherSession openSearcher(NrtIndex nrt, String stopPath, String sim) throws IOException {
+        return new SearcherSession(nrt, stopPath, sim);
+    }
+
+    /**
+     * Opens the writers of an index hash-partitioned by docid into {@code numShards} shard directories,
+     * see {@link ShardedIndex}. The caller owns the index and must close it.
+     */
+    public static ShardedIndex openShardedIndex(String indexPath, String stopPath, String sim,
+                                                int numShards) throws IOException {
+        return new ShardedIndex(indexPath, stopPath, sim, numShards);
+    }
+
+    /**
+     * Opens a searcher that queries every shard of {@code indexPath} in parallel with global statistics.
+     */
+    public static ShardedSearcher openShardedSearcher(String indexPath, String stopPath, String sim) throws IOException {
+        return new ShardedSearcher(indexPath, stopPath, sim, null);
+    }
+
+    /**
+     * Returns the shared session behind {@link #query}, opening it on first use.
+     */
+    public static SearcherSession getSearcher(String indexPath, String stopPath, String sim) throws IOException {
+        return getSearcher(indexPath, stopPath, sim, DirectoryStrategy.FS);
+    }
+
+    /**
+     * Returns the shared session over a directory opened with {@code strategy}, opening it on first use.
+     */
+    public static SearcherSession getSearcher(String indexPath, String stopPath, String sim,
+                                              DirectoryStrategy strategy) throws IOException {
+        String key = indexPath + "\0" + stopPath + "\0" + sim + "\0" + strategy;
+        SearcherSession session = sessions.get(key);
+        if (session == null) {
+            synchronized (sessions) {
+                session = sessions.get(key);
+                if (session == null) {
+                    session = strategy == DirectoryStrategy.FS ? openSearcher(indexPath, stopPath, sim)
+                            : openSearcher(indexPath, stopPath, sim, strategy);
+                    session.setResultCache(resultCache);
+                    sessions.put(key, session);
+                }
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Puts one LRU result cache of {@code maxEntries} entries in front of every shared session;
+     * 0 disables caching.
+     */
+    public static QueryCache enableResultCache(int maxEntries) {
+        synchronized (sessions) {
+            resultCache = maxEntries > 0 ? new QueryCache(maxEntries) : null;
+            for (SearcherSession session : sessions.values()) {
+                session.setResultCache(resultCache);
+            }
+            return resultCache;
+        }
+    }
+
+    public static QueryCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Returns the per-stage query latency histograms as a JSON string, see {@link QueryStats}.
+     */
+    public static String queryStats() {
+        return QueryStats.snapshot();
+    }
+
+    /**
+     * Closes every shared session opened by {@link #query}.
+     */
+    public static void closeSearchers() throws IOException {
+        synchronized (sessions) {
+            for (SearcherSession session : sessions.values()) {
+                session.close();
+            }
+            sessions.clear();
+        }
+    }
+
     public static void makeIndexWriter(String indexPath, String stopPath, String sim) throws IOException {
+        makeIndexWriter(indexPath, stopPath, sim, DirectoryStrategy.FS);
+    }
+
+    /**
+     * Opens {@link #writer} over a directory opened with {@code strategy}. With
+     * {@link DirectoryStrategy#RAM} the existing index is copied to the heap and commits are not persisted.
+     */
+    public static void makeIndexWriter(String indexPath, String stopPath, String sim,
+                                       DirectoryStrategy strategy) throws IOException {
         System.out.println("[makeIndexWriter] started");
         System.out.println("[makeIndexWriter]"+stopPath);
-        Directory dir = FSDirectory.open(Paths.get(indexPath));
-        Analyzer analyzer = new EnglishAnalyzer(
-                StopFilter.makeStopSet(mygetStopwords(stopPath)));
+        long startTime = System.currentTimeMillis();
+        Directory dir = strategy.open(Paths.get(indexPath));
+        if (strategy != DirectoryStrategy.FS)
+            System.out.format("[makeIndexWriter] %s: %d bytes, %d ms\n",
+                    strategy, DirectoryStrategy.sizeOf(dir), System.currentTimeMillis() - startTime);
+        Analyzer analyzer = AnalyzerRegistry.get(stopPath);
         IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+        flushCounter = new BulkIndexer.FlushCounter();
+        iwc.setInfoStream(flushCounter);
 
 
         if (sim.equals("TFIDF"))
@@ -62,12 +252,60 @@ public class luceneInterface {
     }
 
 
+    /**
+     * Points {@link #writer} at a new index built in bulk mode, see {@link BulkBuild}. Index with
+     * {@link #indexDoc} or {@link #indexDocs}, then call {@link BulkBuild#finish} instead of closing the writer.
+     */
+    public static BulkBuild makeBulkIndexWriter(String indexPath, String stopPath, String sim) throws IOException {
+        return makeBulkIndexWriter(indexPath, stopPath, sim, BulkBuild.defaultRamBufferMB());
+    }
+
+    /** Same as {@link #makeBulkIndexWriter(String, String, String)} with an indexing buffer of {@code ramBufferMB}. */
+    public static BulkBuild makeBulkIndexWriter(String indexPath, String stopPath, String sim,
+                                                double ramBufferMB) throws IOException {
+        System.out.format("[makeBulkIndexWriter] %s: %.0f MB buffer\n", indexPath, ramBufferMB);
+        BulkBuild build = new BulkBuild(indexPath, stopPath, sim, ramBufferMB);
+        writer = build.getWriter();
+        flushCounter = build.getFlushCounter();
+        return build;
+    }
+
+
+    /**
+     * Starts a new index whose documents are sorted by static rank, see {@link StaticRankBuild}.
+     * Add documents with {@link StaticRankBuild#add} and write them with {@link StaticRankBuild#finish}.
+     */
+    public static StaticRankBuild makeStaticRankIndexWriter(String indexPath, String stopPath, String sim) throws IOException {
+        System.out.println("[makeStaticRankIndexWriter] "+indexPath);
+        return new StaticRankBuild(indexPath, stopPath, sim);
+    }
+
+
     public static void indexDoc(String docid, String... args) throws IOException {
+        writer.addDocument(makeDocument(docid, args));
+    }
+
+    /**
+     * Adds paragraph {@code docid} with its {@code sentences} as one block, see {@link BlockIndex};
+     * {@code args} are the paragraph's fields as for {@link #indexDoc}. Query with {@link SearcherSession#queryBlocks}.
+     */
+    public static void indexBlock(String docid, String[] sentences, String... args) throws IOException {
+        writer.addDocuments(BlockIndex.makeBlock(docid, Arrays.asList(sentences), args));
+    }
+
+    /** Replaces the block of paragraph {@code docid}, children included. */
+    public static void updateBlock(String docid, String[] sentences, String... args) throws IOException {
+        writer.updateDocuments(BlockIndex.blockTerm(docid), BlockIndex.makeBlock(docid, Arrays.asList(sentences), args));
+    }
+
+    /** Builds the document {@link #indexDoc} adds: {@code args} is {@code field, text, field, text, ...}. */
+    static Document makeDocument(String docid, String... args) {
         //        docid, title, contents,...
         Document doc = new Document();
 
         Field pathField = new StringField("docid", docid, Field.Store.YES);
         doc.add(pathField);
+        doc.add(new SortedDocValuesField("docid", new BytesRef(docid)));
 
         for (int i = 0; i < args.length; i+=2) {
             String field = args[i];
@@ -75,9 +313,30 @@ public class luceneInterface {
             doc.add(new TextField(field, field_text, Field.Store.NO));
 //            System.out.println("[doc.add]" + path + ":" + field + ":" + field_text);
         }
+        return doc;
+    }
+
+    /**
+     * Indexes {@code docs} into {@link #writer} from {@code numThreads} threads.
+     * Each document is laid out as {@code {docid, field, text, field, text, ...}}.
+     */
+    public static BulkIndexer.Report indexDocs(String[][] docs, int numThreads) throws IOException {
+        return new BulkIndexer(writer, flushCounter, numThreads).index(docs);
+    }
 
-        System.out.println("adding " + docid);
-        writer.addDocument(doc);
+    public static BulkIndexer.Report indexDocs(Iterator<String[]> docs, int numThreads) throws IOException {
+        return new BulkIndexer(writer, flushCounter, numThreads).index(docs);
+    }
+
+    /**
+     * Like {@link #indexDocs(String[][], int)}, but adds every paragraph with {@link #indexBlock}, its
+     * sentences read from the {@link SentenceStore} at {@code sentencePath}. Build the whole corpus
+     * this way for {@link IrqaQuery#pipeline(String, String, String)}.
+     */
+    public static BulkIndexer.Report indexBlocks(String[][] docs, String sentencePath, int numThreads) throws IOException {
+        try (SentenceStore sentences = SentenceStore.open(sentencePath)) {
+            return new BulkIndexer(writer, flushCounter, numThreads).indexBlocks(Arrays.asList(docs).iterator(), sentences);
+        }
     }
 
     public static List<String> mygetStopwords(String stopFile) {
@@ -97,27 +356,12 @@ public class luceneInterface {
         return stopwords;
     }
 
+    @SuppressWarnings("unchecked")
     public static List<Document> query(String index, String stoppath, String question, int numResult, String sim)  throws Exception {
-        IndexReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(index)));
-        IndexSearcher searcher = new IndexSearcher(reader);
+        SearcherSession session = getSearcher(index, stoppath, sim);
+        session.refresh();
 
-        Analyzer analyzer = new EnglishAnalyzer(
-                StopFilter.makeStopSet(mygetStopwords(stoppath)));
-
-        if (sim.equals("TFIDF"))
-            searcher.setSimilarity(new ClassicSimilarity());
-        else if (sim.equals("BM25"))
-            searcher.setSimilarity(new BM25Similarity());
-        else
-            searcher.setSimilarity(new BM25Similarity());
-
-        String field = "contents";
-        QueryParser parser = new QueryParser(field, analyzer);
-        Query query = parser.parse(parser.escape(question));
-
-        BooleanQuery.Builder bqb = new BooleanQuery.Builder();
-        bqb.add(new TermQuery(new Term("contents", parser.escape(question))), BooleanClause.Occur.SHOULD);
-        bqb.add(new TermQuery(new Term("sec", parser.escape(question))), BooleanClause.Occur.SHOULD);
+        Query query = buildQuery(session, question);
 
 
 
@@ -125,26 +369,178 @@ public class luceneInterface {
 //        Query query = new TermQuery(term);
 
 //        TopDocs results = searcher.search(query, numResult);
-        TopDocs results = searcher.search(parser.parse(bqb.build().toString()), numResult);
+        return (List<Document>) session.cached("docs", question, query, numResult);
+    }
 
-        ScoreDoc[] hits = results.scoreDocs;
-        List<Document> docs = new ArrayList<Document>();
+    /**
+     * Like {@link #query} but returns the top hits as parallel docid and score arrays,
+     * without loading stored documents.
+     */
+    public static TopHits queryHits(String index, String stoppath, String question, int numResult, String sim)  throws Exception {
+        SearcherSession session = getSearcher(index, stoppath, sim);
+        session.refresh();
 
-        int numTotalHits = results.totalHits;
-//        System.out.println(numTotalHits + " total matching documents");
+        Query query = buildQuery(session, question);
+
+        return (TopHits) session.cached("multihits", question, query, numResult);
+    }
 
-        int end = Math.min(numTotalHits, numResult);
+    /**
+     * Like {@link #queryHits} over an index written with {@link #makeStaticRankIndexWriter}: adds
+     * {@code weight} times the static rank to the score and stops early once the top hits are
+     * settled, see {@link StaticRankSearch}.
+     */
+    public static TopHits queryRanked(String index, String stoppath, String question, int numResult, String sim,
+                                      float weight)  throws Exception {
+        SearcherSession session = getSearcher(index, stoppath, sim);
+        session.refresh();
 
-        String searchResult = "";
-//        System.out.println("Only results 1 - " + hits.length);
+        Query query = buildQuery(session, question);
 
+        return session.searchRanked(query, numResult, weight);
+    }
+
+    /**
+     * Like {@link #queryHits} over an index written with {@link #indexBlock}: returns the top
+     * paragraphs together with their stored sentences.
+     */
+    public static BlockHits queryBlocks(String index, String stoppath, String question, int numResult, String sim)  throws Exception {
+        SearcherSession session = getSearcher(index, stoppath, sim);
+        session.refresh();
+
+        Query query = buildQuery(session, question);
+
+        return (BlockHits) session.cached("blocks", question, query, numResult);
+    }
+
+    /**
+     * Scores the question under every similarity named in {@code sims} (see
+     * {@link SearcherSession#makeSimilarity}) in a single retrieval pass. Field boosts are
+     * honored; a minimum-should-match is not, see {@link MultiSimilaritySearch}.
+     *
+     * @throws IllegalArgumentException if {@link #setQueryFields} set a minimum-should-match
+     */
+    public static TopHits[] queryHits(String index, String stoppath, String question, int numResult, String[] sims)  throws Exception {
+        int minimumShouldMatch = queryShape.getMinimumShouldMatch();
+        if (minimumShouldMatch > 0)
+            throw new IllegalArgumentException("queryHits with several similarities needs minimumShouldMatch 0, got "
+                    + minimumShouldMatch);
+        SearcherSession session = getSearcher(index, stoppath, "BM25");
+        session.refresh();
+
+        Similarity[] similarities = new Similarity[sims.length];
+        for (int i = 0; i < sims.length; i++) {
+            similarities[i] = SearcherSession.makeSimilarity(sims[i]);
+        }
+
+        Query query = buildQuery(session, question);
+
+        return session.searchHits(query, numResult, similarities);
+    }
+
+    /**
+     * Answers every question of {@code questions} like {@link #queryHits(String, String, String, int, String)}
+     * in one call, searching from all available cores, and returns the hits as flat arrays.
+     */
+    public static BatchHits batchQuery(String index, String stoppath, String[] questions, int numResult, String sim)  throws Exception {
+        return batchQuery(index, stoppath, questions, numResult, sim, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Same as {@link #batchQuery(String, String, String[], int, String)} from at most {@code numThreads}
+     * threads of a pool shared by all calls, which has one thread per core. A batch of one block
+     * is answered on the calling thread.
+     */
+    public static BatchHits batchQuery(String index, String stoppath, final String[] questions, final int numResult,
+                                       String sim, int numThreads)  throws Exception {
+        final int blockSize = 64;
+        final SearcherSession session = getSearcher(index, stoppath, sim);
+        session.refresh();
+
+        final TopHits[] hits = new TopHits[questions.length];
+        final int numBlocks = (questions.length + blockSize - 1) / blockSize;
+        final AtomicInteger nextBlock = new AtomicInteger();
+        Callable<Void> task = new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                int block;
+                while ((block = nextBlock.getAndIncrement()) < numBlocks) {
+                    int to = Math.min((block + 1) * blockSize, questions.length);
+                    for (int i = block * blockSize; i < to; i++) {
+                        hits[i] = (TopHits) session.cached("multihits", questions[i],
+                                buildQuery(session, questions[i]), numResult);
+                    }
+                }
+                return null;
+            }
+        };
+
+        int numTasks = Math.min(Math.max(1, numThreads), numBlocks);
+        if (numTasks <= 1) {
+            task.call();
+        } else {
+            ExecutorService workers = batchWorkers();
+            List<Future<Void>> futures = new ArrayList<>(numTasks);
+            for (int t = 0; t < numTasks; t++) {
+                futures.add(workers.submit(task));
+            }
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        }
+        return BatchHits.pack(hits);
+    }
+
+    private static ExecutorService batchWorkers() {
+        ExecutorService workers = batchWorkers;
+        if (workers == null) {
+            synchronized (sessions) {
+                workers = batchWorkers;
+                if (workers == null) {
+                    workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                            new ThreadFactory() {
+                                private final AtomicInteger count = new AtomicInteger();
+
+                                @Override
+                                public Thread newThread(Runnable r) {
+                                    Thread thread = new Thread(r, "batchQuery-" + count.incrementAndGet());
+                                    // idle workers must not keep the interpreter from exiting
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }
+                            });
+                    batchWorkers = workers;
+                }
+            }
+        }
+        return workers;
+    }
+
+    /**
+     * Sets the fields that {@link #query}, {@link #queryHits} and {@link #batchQuery} search, see {@link QueryBuilder}.
+     * The default is "contents" and "sec", unboosted, any term.
+     *
+     * @param boosts             one boost per field, or null for all 1
+     * @param minimumShouldMatch how many question terms must match, or 0 for any
+     */
+    public static void setQueryFields(String[] fields, float[] boosts, int minimumShouldMatch) {
+        queryShape = new QueryBuilder(null, fields, boosts, minimumShouldMatch);
+    }
 
-        for (int i = 0; i < end; i++) {
-            Document doc = searcher.doc(hits[i].doc);
-            docs.add(doc);
+    /** Builds the query of {@link #query} with this thread's {@link QueryBuilder}. */
+    private static Query buildQuery(SearcherSession session, String question) throws Exception {
+        Analyzer analyzer = session.getAnalyzer();
+        QueryBuilder shape = queryShape;
+        QueryBuilder builder = queryBuilders.get();
+        if (builder == null || builder.getAnalyzer() != analyzer || !builder.sameShape(shape)) {
+            builder = shape.withAnalyzer(analyzer);
+            queryBuilders.set(builder);
         }
 
-        return docs;
+        long t = QueryStats.start(QueryStats.Stage.PARSE);
+        Query query = builder.build(question);
+        QueryStats.stop(QueryStats.Stage.PARSE, t);
+        return query;
     }
 
 //    public static  void query(String index, String stoppath, String question, int numResult)  throws Exception  {